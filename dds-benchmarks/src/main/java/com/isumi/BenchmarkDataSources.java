@@ -0,0 +1,108 @@
+package com.isumi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds dds data sources on top of {@link StubAbstractDataSource} and drives them into the
+ * {@link BenchmarkState}s the benchmarks compare.
+ */
+final class BenchmarkDataSources {
+
+    /**
+     * Small maxWait so the retry backoff (at most maxWait / 4 per attempt, maxWait in total)
+     * does not swamp the measurement.
+     */
+    static final String MAX_WAIT = "20";
+
+    private static final long SWITCH_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private BenchmarkDataSources() {
+    }
+
+    static String url(String name) {
+        return "jdbc:stub:" + name;
+    }
+
+    static DynamicDataSource newDynamicDataSource(String name, int slaveCount) {
+        StubJdbcDriver.setMode(url(name + "-master"), StubJdbcDriver.Mode.OK);
+        DynamicDataSource dds = new DynamicDataSource();
+        dds.setDataId(name + ".properties");
+        Properties props = dds.getDdsProperties();
+        props.setProperty("dataSourceClassName", StubAbstractDataSource.class.getName());
+        props.setProperty("driverClassName", StubJdbcDriver.class.getName());
+        props.setProperty("url", url(name + "-master"));
+        props.setProperty("username", "bench");
+        props.setProperty("password", "bench");
+        props.setProperty("maxWait", MAX_WAIT);
+        for (int i = 1; i <= slaveCount; i++) {
+            StubJdbcDriver.setMode(url(name + "-slave" + i), StubJdbcDriver.Mode.OK);
+            props.setProperty("slave." + i + ".url", url(name + "-slave" + i));
+        }
+        dds.setDataSourceProperties();
+        return dds;
+    }
+
+    static StubAbstractDataSource newNode(String name) {
+        StubJdbcDriver.setMode(url(name), StubJdbcDriver.Mode.OK);
+        StubAbstractDataSource ads = new StubAbstractDataSource();
+        Properties props = new Properties();
+        props.setProperty("url", url(name));
+        props.setProperty("maxWait", MAX_WAIT);
+        ads.setDsName(name);
+        ads.setProperties(props);
+        return ads;
+    }
+
+    /**
+     * Applies {@code state} to the master of {@code dds} and, for FAILED_OVER, blocks until the
+     * failover check thread has moved traffic to a slave.
+     */
+    static void apply(DynamicDataSource dds, String name, BenchmarkState state) throws SQLException {
+        String masterUrl = url(name + "-master");
+        switch (state) {
+            case HEALTHY:
+                StubJdbcDriver.setMode(masterUrl, StubJdbcDriver.Mode.OK);
+                break;
+            case DEGRADED:
+                StubJdbcDriver.setMode(masterUrl, StubJdbcDriver.Mode.FAIL_SOMETIMES);
+                break;
+            case FAILED_OVER:
+                AbstractDataSource master = dds.getAds();
+                StubJdbcDriver.setMode(masterUrl, StubJdbcDriver.Mode.FAIL_FATAL);
+                long deadline = System.currentTimeMillis() + SWITCH_TIMEOUT_MILLIS;
+                while (dds.getAds() == master) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException("Failover did not happen for " + name);
+                    }
+                    try {
+                        dds.getConnection().close();
+                    } catch (SQLException e) {
+                        // expected, opens the circuit breaker
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.valueOf(state));
+        }
+    }
+
+    static Map<Object, Object> targets(StubAbstractDataSource... nodes) {
+        Map<Object, Object> targets = new HashMap<Object, Object>();
+        for (StubAbstractDataSource node : nodes) {
+            targets.put(node.getDsName(), node);
+        }
+        return targets;
+    }
+
+    static Connection closeQuietly(Connection connection) throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+        return connection;
+    }
+}
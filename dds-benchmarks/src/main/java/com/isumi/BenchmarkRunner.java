@@ -0,0 +1,40 @@
+package com.isumi;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark at 1, 2, 4 ... N threads with the GC profiler attached, so one run
+ * reports throughput, p99 latency (SampleTime mode) and allocation rate (gc.alloc.rate.norm).
+ * <p>Usage: {@code BenchmarkRunner [maxThreads] [includeRegex]}, maxThreads defaults to the
+ * number of available processors.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        String include = args.length > 1 ? args[1] : "com\\.isumi\\..*Benchmark.*";
+
+        for (int threads = 1; threads <= maxThreads; threads = next(threads, maxThreads)) {
+            Options options = new OptionsBuilder().include(include).threads(threads)
+                .addProfiler(GCProfiler.class).resultFormat(ResultFormatType.CSV)
+                .result("target/jmh-" + threads + "-threads.csv").build();
+            new Runner(options).run();
+        }
+    }
+
+    private static int next(int threads, int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+        return Math.min(threads * 2, maxThreads);
+    }
+}
@@ -0,0 +1,13 @@
+package com.isumi;
+
+/**
+ * Health of the data sources under measurement.
+ */
+public enum BenchmarkState {
+    /** Every node answers. */
+    HEALTHY,
+    /** The active node fails intermittently, below the circuit breaker failure rate. */
+    DEGRADED,
+    /** The active node fails fatally and traffic has been moved elsewhere. */
+    FAILED_OVER
+}
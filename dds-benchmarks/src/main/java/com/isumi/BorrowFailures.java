@@ -0,0 +1,16 @@
+package com.isumi;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Borrows that ended in a SQLException. In DEGRADED some retries run out of budget by design,
+ * they are counted and reported next to the score instead of aborting the trial.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class BorrowFailures {
+
+    public long failures;
+}
@@ -0,0 +1,75 @@
+package com.isumi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Borrow and return through {@link AbstractDataSource#getConnectionWithLock} directly and through
+ * {@link DynamicDataSource#getConnection()}, for a master/slave pair in each
+ * {@link BenchmarkState}. Failed borrows are counted in {@link BorrowFailures}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionAcquisitionBenchmark {
+
+    private static final String NAME = "acquire";
+
+    @Param({ "HEALTHY", "DEGRADED", "FAILED_OVER" })
+    public BenchmarkState state;
+
+    private DynamicDataSource dds;
+
+    private AbstractDataSource ads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        dds = BenchmarkDataSources.newDynamicDataSource(NAME, 1);
+        BenchmarkDataSources.apply(dds, NAME, state);
+        ads = dds.getAds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dds.close();
+    }
+
+    @Benchmark
+    public Connection abstractDataSourceGetConnectionWithLock(BorrowFailures failures) {
+        try {
+            return BenchmarkDataSources
+                .closeQuietly(ads.getConnectionWithLock(false, null, null, null));
+        } catch (SQLException e) {
+            failures.failures++;
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Connection dynamicDataSourceGetConnection(BorrowFailures failures) {
+        try {
+            return BenchmarkDataSources.closeQuietly(dds.getConnection());
+        } catch (SQLException e) {
+            failures.failures++;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.isumi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replica selection and borrow through {@link DynamicRoutingDataSource} over three stub slaves.
+ * DEGRADED makes one slave fail intermittently, FAILED_OVER makes every slave fail fatally so
+ * that all of them are ejected and reads fall back to the default (master) data source.
+ * Failed borrows are counted in {@link BorrowFailures}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final String[] SLAVES = { "route-slave1", "route-slave2", "route-slave3" };
+
+    @Param({ "HEALTHY", "DEGRADED", "FAILED_OVER" })
+    public BenchmarkState state;
+
+    private DynamicRoutingDataSource router;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        StubAbstractDataSource[] slaves = new StubAbstractDataSource[SLAVES.length];
+        for (int i = 0; i < SLAVES.length; i++) {
+            slaves[i] = BenchmarkDataSources.newNode(SLAVES[i]);
+        }
+        router = new DynamicRoutingDataSource();
+        router.setTargetDataSources(BenchmarkDataSources.targets(slaves));
+        router.setDefaultTargetDataSource(BenchmarkDataSources.newNode("route-master"));
+        router.afterPropertiesSet();
+
+        switch (state) {
+            case DEGRADED:
+                StubJdbcDriver.setMode(BenchmarkDataSources.url(SLAVES[0]),
+                    StubJdbcDriver.Mode.FAIL_SOMETIMES);
+                break;
+            case FAILED_OVER:
+                for (String slave : SLAVES) {
+                    StubJdbcDriver.setMode(BenchmarkDataSources.url(slave),
+                        StubJdbcDriver.Mode.FAIL_FATAL);
+                }
+                router.getConnection().close();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Benchmark
+    public Object determineCurrentLookupKey() {
+        return router.determineCurrentLookupKey();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        router.close();
+    }
+
+    @Benchmark
+    public Connection routingGetConnection(BorrowFailures failures) {
+        try {
+            return BenchmarkDataSources.closeQuietly(router.getConnection());
+        } catch (SQLException e) {
+            failures.failures++;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.isumi;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+
+/**
+ * Pool-less AbstractDataSource for the benchmarks: every borrow is a "physical" connect on
+ * {@link StubJdbcDriver}, so the numbers isolate the cost of the dds layers themselves.
+ */
+public class StubAbstractDataSource extends AbstractDataSource {
+
+    private final StubJdbcDriver driver = new StubJdbcDriver();
+
+    private String url;
+
+    private long maxWait;
+
+    private int maxActive;
+
+    private Properties info;
+
+    @Override
+    protected void setProperties(Properties properties) {
+        url = properties.getProperty("url");
+        maxWait = NumberUtils.toLong(properties.getProperty("maxWait"), 5000L);
+        maxActive = NumberUtils.toInt(properties.getProperty("maxActive"), 100);
+        info = new Properties();
+        info.putAll(properties);
+        super.setProperties(properties);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return driver.connect(url, info);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return driver.connect(url, info);
+    }
+
+    @Override
+    protected long getMaxWait() {
+        return maxWait;
+    }
+
+    @Override
+    protected int getMaxActive() {
+        return maxActive;
+    }
+
+    @Override
+    protected ConnectionPool getTomcatConnPool() {
+        return null;
+    }
+
+    @Override
+    protected DataSource getRealDataSource() {
+        return this;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+package com.isumi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.isumi.driver.JdbcDriverMonitorProxy;
+
+/**
+ * In-process driver for the benchmarks. Goes through {@link JdbcDriverMonitorProxy} so that
+ * failures reach AbstractDataSource as PhyGetConnException exactly like the MySQL proxy.
+ * The behaviour of each url is switched at runtime with {@link #setMode(String, Mode)}.
+ */
+public class StubJdbcDriver extends JdbcDriverMonitorProxy {
+
+    public enum Mode {
+        /** Every connect succeeds. */
+        OK,
+        /** One connect in {@link #FAIL_EVERY} fails with a non fatal error. */
+        FAIL_SOMETIMES,
+        /** Every connect fails with a fatal (link failure) error. */
+        FAIL_FATAL
+    }
+
+    public static final int FAIL_EVERY = 64;
+
+    private static final String FATAL_SQL_STATE = "08S01";
+
+    private static final ConcurrentMap<String, Mode> MODES = new ConcurrentHashMap<String, Mode>();
+
+    private static final AtomicLong CONNECT_COUNT = new AtomicLong();
+
+    private static final Connection STUB_CONNECTION = (Connection) Proxy.newProxyInstance(
+        StubJdbcDriver.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) {
+                    return "isValid".equals(method.getName());
+                } else if (returnType == int.class) {
+                    return 0;
+                } else if (returnType == long.class) {
+                    return 0L;
+                }
+                return null;
+            }
+        });
+
+    private final Driver realDriver = new Driver() {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            Mode mode = MODES.get(url);
+            if (mode == Mode.FAIL_FATAL) {
+                throw new SQLException("Stub link failure: " + url, FATAL_SQL_STATE);
+            }
+            if (mode == Mode.FAIL_SOMETIMES && CONNECT_COUNT.incrementAndGet() % FAIL_EVERY == 0) {
+                throw new SQLException("Stub transient failure: " + url, "08001");
+            }
+            return STUB_CONNECTION;
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url != null && url.startsWith("jdbc:stub:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    };
+
+    public static void setMode(String url, Mode mode) {
+        MODES.put(url, mode);
+    }
+
+    @Override
+    protected Driver getRealDriver() {
+        return realDriver;
+    }
+
+    @Override
+    protected boolean isExceptionFatal(SQLException e) {
+        return FATAL_SQL_STATE.equals(e.getSQLState());
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return null;
+    }
+}
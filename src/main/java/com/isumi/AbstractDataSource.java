@@ -2,14 +2,30 @@ package com.isumi;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
 import com.isumi.driver.JdbcDriverMonitorProxy;
-import com.isumi.util.ResetableCountDownLatch;
+import com.isumi.jfr.JfrEvents;
+import com.isumi.monitor.ConnectionMonitor;
+import com.isumi.monitor.MonitorSnapshot;
+import com.isumi.monitor.SlowSqlRecorder;
+import com.isumi.monitor.SqlMonitorProxy;
+import com.isumi.util.CircuitBreaker;
+import com.isumi.util.RetryPolicy;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.tomcat.jdbc.pool.ConnectionPool;
@@ -23,10 +39,7 @@ public abstract class AbstractDataSource implements DataSource {
 
     public final static int DB_ERR_MAX_COUNT = 20;
 
-    private final ResetableCountDownLatch dbErrCount = new ResetableCountDownLatch(
-        DB_ERR_MAX_COUNT);
-
-    private Semaphore activeCount;
+    private volatile CircuitBreaker circuitBreaker;
 
     private final static String CON_RETRY_TIME_STR = "conRetryTime";
 
@@ -34,6 +47,67 @@ public abstract class AbstractDataSource implements DataSource {
 
     private final static int DEFAULT_TEST_CONNECTION_COUNT = 2;
 
+    private final static String BREAKER_WINDOW_MILLIS_STR    = "breakerWindowMillis";
+    private final static String BREAKER_MINIMUM_CALLS_STR    = "breakerMinimumCalls";
+    private final static String BREAKER_FAILURE_RATE_STR     = "breakerFailureRate";
+    private final static String BREAKER_OPEN_MILLIS_STR      = "breakerOpenMillis";
+    private final static String BREAKER_HALF_OPEN_PROBES_STR = "breakerHalfOpenProbes";
+
+    private final static long DEFAULT_BREAKER_WINDOW_MILLIS = 10000L;
+    private final static int  DEFAULT_BREAKER_FAILURE_RATE  = 50;
+
+    private final static String RETRY_BASE_DELAY_MILLIS_STR = "retryBaseDelayMillis";
+    private final static String RETRY_MAX_DELAY_MILLIS_STR  = "retryMaxDelayMillis";
+    private final static String RETRY_BUDGET_MILLIS_STR     = "retryBudgetMillis";
+
+    private volatile RetryPolicy retryPolicy;
+
+    private final AsyncConnectionAcquirer asyncAcquirer = new AsyncConnectionAcquirer(this);
+
+    /**
+     * Shared by every pool: bounds how many physical connects a warm up puts on the
+     * databases at once, and keeps warm up off the async acquirer's connector threads.
+     */
+    private final static int                WARM_UP_THREADS  = 4;
+    private final static ThreadPoolExecutor WARM_UP_EXECUTOR = newWarmUpExecutor();
+
+    private final static String MONITOR_SUPPORT_STR    = "monitorSupport";
+    private final static String SLOW_SQL_THRESHOLD_STR = "slowSqlThreshold";
+    private final static String SQL_STATS_CAPACITY_STR = "sqlStatsCapacity";
+    private final static String SQL_STATS_TOP_STR      = "sqlStatsTop";
+
+    private int sqlStatsTop = 10;
+
+    private final ConnectionMonitor monitor = new ConnectionMonitor();
+
+    private boolean monitorSupport;
+
+    private long slowSqlThresholdNanos = Long.MAX_VALUE;
+
+    private final SqlMonitorProxy.Listener sqlListener = new SqlMonitorProxy.Listener() {
+        @Override
+        public void onExecute(String sql, long startMillis, long elapsedNanos, long rows,
+                              boolean failed) {
+            monitor.onStatement(sql, elapsedNanos, rows, failed);
+            if (elapsedNanos >= slowSqlThresholdNanos) {
+                SlowSqlRecorder recorder = dynamicDataSource.getSlowSqlRecorder();
+                if (recorder != null) {
+                    recorder.publish(dsName, sql, startMillis, elapsedNanos, rows, failed);
+                }
+            }
+        }
+    };
+
+    private final CircuitBreaker.Listener tripCounter = new CircuitBreaker.Listener() {
+        @Override
+        public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State from,
+                                  CircuitBreaker.State to) {
+            if (to == CircuitBreaker.State.OPEN) {
+                monitor.onBreakerTrip();
+            }
+        }
+    };
+
     private String dsName;
 
     public String getDsName() {
@@ -52,6 +126,45 @@ public abstract class AbstractDataSource implements DataSource {
 
     protected abstract ConnectionPool getTomcatConnPool();
 
+    /**
+     * @return number of connections currently borrowed from the pool, 0 if unknown
+     */
+    protected int getActiveCount() {
+        return 0;
+    }
+
+    /**
+     * @return number of idle connections in the pool, 0 if unknown
+     */
+    protected int getIdleCount() {
+        return 0;
+    }
+
+    /**
+     * Apply new sizing settings (maxActive, maxIdle, minIdle, initialSize) to the running
+     * pool.
+     *
+     * @return false if the pool can't be resized in place and has to be rebuilt
+     */
+    protected boolean resize(Properties properties) {
+        return false;
+    }
+
+    /**
+     * @return whether {@link #resize(Properties)} would accept these settings, without
+     *         applying them
+     */
+    protected boolean canResize(Properties properties) {
+        return false;
+    }
+
+    /**
+     * @return number of physical connections currently held by the pool, 0 if unknown
+     */
+    protected int getPoolSize() {
+        return 0;
+    }
+
     protected void setProperties(Properties properties) {
         String tmpValue = properties.getProperty(CON_RETRY_TIME_STR);
         if (StringUtils.isNotEmpty(tmpValue) && NumberUtils.isDigits(tmpValue)) {
@@ -61,101 +174,255 @@ public abstract class AbstractDataSource implements DataSource {
             }
         }
 
-        activeCount = new Semaphore(DEFAULT_TEST_CONNECTION_COUNT, true);
+        circuitBreaker = new CircuitBreaker(dsName,
+            NumberUtils.toLong(properties.getProperty(BREAKER_WINDOW_MILLIS_STR),
+                DEFAULT_BREAKER_WINDOW_MILLIS),
+            NumberUtils.toInt(properties.getProperty(BREAKER_MINIMUM_CALLS_STR), DB_ERR_MAX_COUNT),
+            NumberUtils.toInt(properties.getProperty(BREAKER_FAILURE_RATE_STR),
+                DEFAULT_BREAKER_FAILURE_RATE),
+            NumberUtils.toLong(properties.getProperty(BREAKER_OPEN_MILLIS_STR), getMaxWait()),
+            NumberUtils.toInt(properties.getProperty(BREAKER_HALF_OPEN_PROBES_STR),
+                DEFAULT_TEST_CONNECTION_COUNT));
+        circuitBreaker.addListener(tripCounter);
+
+        // Defaults keep the old envelope: at most maxWait/4 between attempts, maxWait in total.
+        retryPolicy = new RetryPolicy(
+            NumberUtils.toLong(properties.getProperty(RETRY_BASE_DELAY_MILLIS_STR),
+                getMaxWait() >> 4),
+            NumberUtils.toLong(properties.getProperty(RETRY_MAX_DELAY_MILLIS_STR),
+                getMaxWait() >> 2),
+            NumberUtils.toLong(properties.getProperty(RETRY_BUDGET_MILLIS_STR), getMaxWait()));
     }
 
     protected void close() {
-
+        asyncAcquirer.close();
     }
 
+    /**
+     * Ends the current monitoring interval of this node and archives it when monitorSupport
+     * is on. With <code>isTest</code> the interval is only read, not ended.
+     *
+     * @return number of connections borrowed during the interval
+     */
     protected int flushMonitorData(boolean isTest) {
-        return 0;
+        MonitorSnapshot snapshot = isTest ? monitor.snapshot(dsName) : monitor.flush(dsName);
+        if (!isTest && monitorSupport && !snapshot.isEmpty()) {
+            ConnectionMonitor.archive(snapshot, sqlStatsTop);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, snapshot.getBorrows());
     }
 
     protected abstract DataSource getRealDataSource();
 
-    protected Connection getConnectionWithLock(boolean needParams, String username, String password,
-                                               String transactionIsolation) throws SQLException {
-        Connection connection = null;
-        int retryTime = this.conRetryTime;
-        long startTime = 0, usedTime = 0, tmpUsedTime = 0, sleepTime = 0;
+    /**
+     * Borrow without waiting for a connection to be returned to the pool.
+     *
+     * @return the connection, or null if every pooled connection is in use. The default
+     *         implementation can't tell and simply borrows.
+     */
+    protected Connection pollConnection(boolean needParams, String username, String password)
+                                                                                             throws SQLException {
+        return needParams ? getConnection(username, password) : getConnection();
+    }
 
-        boolean needActiveCountRelease = false;
-        try {
-            startTime = System.currentTimeMillis();
-            if (dbErrCount.getCount() <= 0) {
-                if (!activeCount.tryAcquire(getMaxWait(), TimeUnit.MILLISECONDS)) {
-                    throw new SQLException("Get connection fail due to DB error," + "pool id:"
-                                           + dynamicDataSource.getPoolId() + ",data id:"
-                                           + dynamicDataSource.getDataId());
-                } else {
-                    if (dbErrCount.getCount() <= 0) {
-                        LOGGER.warn("[Try to recover DB Connection.]");
-                        needActiveCountRelease = true;
-                    } else {
-                        activeCount.release();
+    /**
+     * Same as getConnectionWithLock but never blocks the caller: waiting for the pool and
+     * retry back-off happen off-thread, see {@link AsyncConnectionAcquirer}.
+     */
+    protected CompletableFuture<Connection> getConnectionAsync(boolean needParams,
+                                                               String username, String password,
+                                                               String transactionIsolation) {
+        return asyncAcquirer.acquire(needParams, username, password, transactionIsolation);
+    }
+
+    /**
+     * Opens up to <code>count</code> connections at once (validated as on any borrow) and
+     * returns them all to the pool, leaving that many idle connections ready. The borrows
+     * go straight to the pool from a small shared executor: they don't count as borrows in
+     * the monitor and their failures don't reach the circuit breaker.
+     *
+     * @return number of connections obtained
+     * @throws SQLException if not even one connection could be obtained
+     */
+    protected int warmUp(int count) throws SQLException {
+        count = Math.max(1, Math.min(count, getMaxActive()));
+        List<Future<Connection>> futures = new ArrayList<Future<Connection>>(count);
+        for (int i = 0; i < count; i++) {
+            futures.add(WARM_UP_EXECUTOR.submit(new Callable<Connection>() {
+                @Override
+                public Connection call() throws SQLException {
+                    return getConnection();
+                }
+            }));
+        }
+        List<Connection> connections = new ArrayList<Connection>(count);
+        Throwable error = null;
+        boolean interrupted = false;
+        for (Future<Connection> future : futures) {
+            while (true) {
+                try {
+                    connections.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // drop the connects not started yet, wait for the running ones to close them
+                    interrupted = true;
+                    for (Future<Connection> pending : futures) {
+                        pending.cancel(false);
                     }
+                } catch (CancellationException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    error = e.getCause();
+                    break;
                 }
             }
-            tmpUsedTime = System.currentTimeMillis() - startTime;
-            usedTime += tmpUsedTime;
+        }
+        // only give them back once all are open, or the pool would just reuse one
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.warn("Close warm up connection fail," + describePool(), e);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Thread has been canceled," + describePool());
+        }
+        if (connections.isEmpty()) {
+            throw error instanceof SQLException ? (SQLException) error
+                : new SQLException("Warm up fail," + describePool(), error);
+        }
+        return connections.size();
+    }
+
+    private static ThreadPoolExecutor newWarmUpExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WARM_UP_THREADS, WARM_UP_THREADS,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-warm-up-" + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Connection used by {@link #probe(int)}. The default borrows from the pool; pools that
+     * can should open a physical connection of their own so the probe neither competes with
+     * the application for pooled connections nor runs the validation query.
+     */
+    protected Connection openProbeConnection() throws SQLException {
+        return getConnection();
+    }
+
+    /**
+     * Lightweight health check: Connection.isValid on a probe connection. A successful probe
+     * closes the circuit breaker so traffic can come back without waiting for the open
+     * period to end.
+     *
+     * @return true if the database answered within <code>timeoutSeconds</code>
+     */
+    public boolean probe(int timeoutSeconds) {
+        Connection connection = null;
+        try {
+            connection = openProbeConnection();
+            if (!connection.isValid(timeoutSeconds)) {
+                return false;
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Probe fail," + describePool() + ":" + e.getMessage());
+            return false;
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    // nothing to do
+                }
+            }
+        }
+        if (!circuitBreaker.isClosed()) {
+            circuitBreaker.reset();
+        }
+        return true;
+    }
 
+    protected Connection getConnectionWithLock(boolean needParams, String username, String password,
+                                               String transactionIsolation) throws SQLException {
+        Connection connection = null;
+        int retryTime = this.conRetryTime;
+        int attempt = 0, tries = 0;
+        long startTime = 0, usedTime = 0, tmpUsedTime = 0, sleepTime = 0, backoffTime = 0;
+        final long begin = System.nanoTime();
+        final Object jfrEvent = JfrEvents.beginAcquire();
+
+        final CircuitBreaker breaker = circuitBreaker;
+        final RetryPolicy retry = retryPolicy;
+        int permission = breaker.tryAcquirePermission();
+        if (permission == CircuitBreaker.DENIED) {
+            monitor.onFailure();
+            JfrEvents.endAcquire(jfrEvent, dsName, 0, 0L, "BREAKER_OPEN");
+            throw new SQLException("Get connection fail due to DB error," + "pool id:"
+                                   + dynamicDataSource.getPoolId() + ",data id:"
+                                   + dynamicDataSource.getDataId());
+        }
+        if (permission == CircuitBreaker.PROBE) {
+            LOGGER.warn("[Try to recover DB Connection.]");
+        }
+        boolean permissionUsed = false;
+        try {
             while (retryTime >= 0) {
                 startTime = System.currentTimeMillis();
+                tries++;
                 try {
                     if (needParams) {
                         connection = getConnection(username, password);
                     } else {
                         connection = getConnection();
                     }
-                    if (dbErrCount.getCount() < AbstractDataSource.DB_ERR_MAX_COUNT) {
-                        LOGGER.info("[Recover DB Connection success.]");
-                        dbErrCount.resetCount();
+                    if (!permissionUsed || permission == CircuitBreaker.PERMITTED) {
+                        permissionUsed = true;
+                        if (breaker.onSuccess(permission)) {
+                            LOGGER.info("[Recover DB Connection success.]");
+                        }
                     }
 
-                    if (StringUtils.isNotBlank(transactionIsolation)) {
-                        int leave = 0;
-                        if (transactionIsolation.equals("TRANSACTION_READ_UNCOMMITTED"))
-                            leave = 1;
-                        else if (transactionIsolation.equals("TRANSACTION_READ_COMMITTED"))
-                            leave = 2;
-                        else if (transactionIsolation.equals("TRANSACTION_REPEATABLE_READ"))
-                            leave = 4;
-                        else if (transactionIsolation.equals("TRANSACTION_SERIALIZABLE"))
-                            leave = 8;
-
-                        if (leave != 0)
-                            connection.setTransactionIsolation(leave);
-                    }
-                    return connection;
+                    applyTransactionIsolation(connection, transactionIsolation);
+                    monitor.onBorrow(System.nanoTime() - begin);
+                    JfrEvents.endAcquire(jfrEvent, dsName, tries, backoffTime, "OK");
+                    return monitorConnection(connection);
                 } catch (SQLException e) {
                     tmpUsedTime = System.currentTimeMillis() - startTime;
                     usedTime += tmpUsedTime;
 
-                    Throwable rootCause = e;
-                    boolean isDBErr = false;
-                    while (rootCause != null) {
-                        if (e instanceof JdbcDriverMonitorProxy.PhyGetConnException) {
-                            isDBErr = true;
-                            JdbcDriverMonitorProxy.PhyGetConnException phyGetConnException = (JdbcDriverMonitorProxy.PhyGetConnException) e;
-                            if (phyGetConnException.isExceptionFatal()) {
-                                dbErrCount.clearCount();
-                            } else {
-                                dbErrCount.countDown();
-                            }
-                            break;
-                        } else {
-                            rootCause = rootCause.getCause();
-                        }
+                    JdbcDriverMonitorProxy.PhyGetConnException phyGetConnException = findPhyGetConnException(e);
+                    boolean isDBErr = phyGetConnException != null;
+                    if (isDBErr && (!permissionUsed || permission == CircuitBreaker.PERMITTED)) {
+                        permissionUsed = true;
+                        breaker.onFailure(permission, phyGetConnException.isExceptionFatal());
                     }
 
-                    if (usedTime < getMaxWait() && tmpUsedTime < getMaxWait()) {
-                        sleepTime = usedTime + getMaxWait() >> 2 <= getMaxWait() ? getMaxWait() >> 2
-                            : getMaxWait() - usedTime;
+                    sleepTime = -1;
+                    if (isDBErr && !breaker.isClosed()) {// Circuit open, fail fast.
+                        retryTime = -1;
+                    } else if (tmpUsedTime < getMaxWait()
+                               && (sleepTime = retry.nextDelay(attempt, usedTime)) >= 0) {
+                        attempt++;
+                        monitor.onRetry();
                         try {
                             Thread.sleep(sleepTime);
                             usedTime += sleepTime;
+                            backoffTime += sleepTime;
                         } catch (InterruptedException e1) {
+                            monitor.onFailure();
+                            JfrEvents.endAcquire(jfrEvent, dsName, tries, backoffTime,
+                                "INTERRUPTED");
                             throw new SQLException(
                                 "Thread has been canceled,pool id:" + dynamicDataSource.getPoolId()
                                                    + ",data id:" + dynamicDataSource.getDataId(),
@@ -166,11 +433,17 @@ public abstract class AbstractDataSource implements DataSource {
                     }
                     if (retryTime < 0) {
                         if (isDBErr) {
+                            monitor.onFailure();
+                            JfrEvents.endAcquire(jfrEvent, dsName, tries, backoffTime,
+                                "DB_ERROR");
                             throw new SQLException("Get connection with DB error,pool id:"
                                                    + dynamicDataSource.getPoolId() + ",data id:"
                                                    + dynamicDataSource.getDataId(),
                                 e);
                         } else {
+                            monitor.onTimeout();
+                            JfrEvents.endAcquire(jfrEvent, dsName, tries, backoffTime,
+                                "TIMEOUT");
                             throw new SQLException(
                                 "Get connection timeout,pool id:" + dynamicDataSource.getPoolId()
                                                    + ",data id:" + dynamicDataSource.getDataId(),
@@ -179,19 +452,50 @@ public abstract class AbstractDataSource implements DataSource {
                     }
                 }
             }
-        } catch (InterruptedException e) {
-            throw new SQLException(
-                "Thread has been canceled,pool id:" + dynamicDataSource.getPoolId() + ",data id:"
-                                   + dynamicDataSource.getDataId(),
-                e);
         } finally {
-            if (needActiveCountRelease) {
-                activeCount.release();
+            if (!permissionUsed) {
+                breaker.release(permission);
             }
         }
         throw new SQLException("Unknow error.");
     }
 
+    static void applyTransactionIsolation(Connection connection, String transactionIsolation)
+                                                                                              throws SQLException {
+        if (StringUtils.isNotBlank(transactionIsolation)) {
+            int leave = 0;
+            if (transactionIsolation.equals("TRANSACTION_READ_UNCOMMITTED"))
+                leave = 1;
+            else if (transactionIsolation.equals("TRANSACTION_READ_COMMITTED"))
+                leave = 2;
+            else if (transactionIsolation.equals("TRANSACTION_REPEATABLE_READ"))
+                leave = 4;
+            else if (transactionIsolation.equals("TRANSACTION_SERIALIZABLE"))
+                leave = 8;
+
+            if (leave != 0)
+                connection.setTransactionIsolation(leave);
+        }
+    }
+
+    /**
+     * @return the physical connect failure behind <code>e</code>, or null if the pool failed
+     *         for another reason (e.g. wait timeout)
+     */
+    static JdbcDriverMonitorProxy.PhyGetConnException findPhyGetConnException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JdbcDriverMonitorProxy.PhyGetConnException) {
+                return (JdbcDriverMonitorProxy.PhyGetConnException) cause;
+            }
+        }
+        return null;
+    }
+
+    String describePool() {
+        return "pool id:" + dynamicDataSource.getPoolId() + ",data id:"
+               + dynamicDataSource.getDataId();
+    }
+
     public DynamicDataSource getDynamicDataSource() {
         return dynamicDataSource;
     }
@@ -200,11 +504,49 @@ public abstract class AbstractDataSource implements DataSource {
         this.dynamicDataSource = dynamicDataSource;
     }
 
-    public boolean needChange(long waitTime) throws InterruptedException {
-        return dbErrCount.await(waitTime, TimeUnit.MILLISECONDS);
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
+    public boolean needChange() {
+        return !circuitBreaker.isClosed();
+    }
+
+    /**
+     * Counters are always kept; monitorSupport=true also archives them on every flush and
+     * times the statements of borrowed connections: per fingerprint statistics of at most
+     * sqlStatsCapacity statements (the sqlStatsTop slowest are archived), and those slower
+     * than slowSqlThreshold (ms, 0 or less to disable) go to the slow SQL recorder.
+     *
+     * @return whether monitorSupport is on
+     */
     protected boolean setMonitorProperties(Properties properties) {
-        return false;
+        monitorSupport = Boolean.parseBoolean(properties.getProperty(MONITOR_SUPPORT_STR));
+        long threshold = NumberUtils.toLong(properties.getProperty(SLOW_SQL_THRESHOLD_STR), 0L);
+        slowSqlThresholdNanos = threshold > 0 ? TimeUnit.MILLISECONDS.toNanos(threshold)
+            : Long.MAX_VALUE;
+        monitor.setSqlStatsCapacity(NumberUtils.toInt(
+            properties.getProperty(SQL_STATS_CAPACITY_STR), 256));
+        sqlStatsTop = NumberUtils.toInt(properties.getProperty(SQL_STATS_TOP_STR), sqlStatsTop);
+        return monitorSupport;
+    }
+
+    /**
+     * @return the connection, with its statements timed when monitorSupport is on
+     */
+    Connection monitorConnection(Connection connection) {
+        return monitorSupport ? SqlMonitorProxy.wrap(connection, sqlListener) : connection;
+    }
+
+    public boolean isMonitorSupport() {
+        return monitorSupport;
+    }
+
+    public ConnectionMonitor getMonitor() {
+        return monitor;
     }
 }
\ No newline at end of file
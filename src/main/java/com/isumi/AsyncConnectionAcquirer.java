@@ -0,0 +1,379 @@
+package com.isumi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import com.isumi.driver.JdbcDriverMonitorProxy;
+import com.isumi.util.CircuitBreaker;
+import com.isumi.util.RetryPolicy;
+
+/**
+ * Non-blocking counterpart of AbstractDataSource.getConnectionWithLock.
+ * <p>Borrowers are never made to wait on the pool: the pool is polled with a zero wait and,
+ * when every connection is in use, the borrow is parked in a FIFO queue and completed when an
+ * async-borrowed connection is closed, or by a short poll that notices connections returned
+ * by blocking borrowers. Failed physical connects are retried with the data source's
+ * RetryPolicy delays, and the borrow fails once its maxWait deadline passes.
+ * <p>Polling the pool may still open a physical connection and run testOnBorrow, so it runs
+ * on a small executor owned by the data source; a database that hangs on connect only holds
+ * up borrows of its own node. The shared scheduler only fires timers.
+ * <p>Only lock-free structures are used, so completing or cancelling a future from a virtual
+ * thread never pins its carrier.
+ */
+final class AsyncConnectionAcquirer {
+
+    private static final long                     PARK_POLL_MILLIS = 20L;
+
+    private static final ScheduledExecutorService SCHEDULER        = newScheduler();
+
+    private final AbstractDataSource              ads;
+    private final ThreadPoolExecutor              connector;
+    private final ConcurrentLinkedDeque<Borrow>   parked           = new ConcurrentLinkedDeque<Borrow>();
+    private final AtomicInteger                   drainRequests    = new AtomicInteger();
+    private final AtomicBoolean                   polling          = new AtomicBoolean(false);
+
+    private final Runnable                        drainTask        = new Runnable() {
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = drainRequests.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    };
+
+    private final Runnable                        pollTask         = new Runnable() {
+        @Override
+        public void run() {
+            signal();
+            if (!parked.isEmpty() && !connector.isShutdown()) {
+                SCHEDULER.schedule(this, PARK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            polling.set(false);
+            if (!parked.isEmpty() && polling.compareAndSet(false, true)) {
+                SCHEDULER.schedule(this, PARK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    };
+
+    AsyncConnectionAcquirer(final AbstractDataSource ads) {
+        this.ads = ads;
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.connector = new ThreadPoolExecutor(threads, threads, 60L,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-connector-" + ads.getDsName() + "-"
+                                                  + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        this.connector.allowCoreThreadTimeOut(true);
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2,
+            new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-async-acquirer-" + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Shared by every acquirer, for timers only: tasks run here must not block.
+     */
+    static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Fails the parked borrows and stops the connect threads, called when the data source
+     * closes.
+     */
+    void close() {
+        connector.shutdownNow();
+        Borrow borrow;
+        while ((borrow = parked.pollFirst()) != null) {
+            fail(borrow);
+        }
+    }
+
+    CompletableFuture<Connection> acquire(boolean needParams, String username, String password,
+                                          String transactionIsolation) {
+        final Borrow borrow = new Borrow(needParams, username, password, transactionIsolation);
+        final CircuitBreaker breaker = ads.getCircuitBreaker();
+        borrow.permission = breaker.tryAcquirePermission();
+        if (borrow.permission == CircuitBreaker.DENIED) {
+            ads.getMonitor().onFailure();
+            borrow.future.completeExceptionally(
+                new SQLException("Get connection fail due to DB error," + ads.describePool()));
+            return borrow.future;
+        }
+        if (connector.isShutdown()) {
+            fail(borrow);
+            return borrow.future;
+        }
+        final ScheduledFuture<?> timeout = SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (borrow.future.completeExceptionally(
+                    new SQLException("Get connection timeout," + ads.describePool()))) {
+                    ads.getMonitor().onTimeout();
+                }
+            }
+        }, borrow.deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        borrow.future.whenComplete(new BiConsumer<Connection, Throwable>() {
+            @Override
+            public void accept(Connection connection, Throwable t) {
+                timeout.cancel(false);
+            }
+        });
+        submitAttempt(borrow);
+        return borrow.future;
+    }
+
+    private void submitAttempt(final Borrow borrow) {
+        try {
+            connector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    attempt(borrow);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(borrow);
+        }
+    }
+
+    private void fail(Borrow borrow) {
+        settle(ads.getCircuitBreaker(), borrow);
+        borrow.future.completeExceptionally(new SQLException("Data source closed,"
+                                                             + ads.describePool()));
+    }
+
+    /**
+     * A connection may be free: let parked borrows try the pool again.
+     */
+    void signal() {
+        if (drainRequests.getAndIncrement() == 0) {
+            try {
+                connector.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                // closed, the parked borrows have been failed
+            }
+        }
+    }
+
+    private void drain() {
+        Borrow borrow;
+        while ((borrow = parked.pollFirst()) != null) {
+            if (!tryBorrow(borrow)) {
+                parked.offerFirst(borrow);
+                return;
+            }
+        }
+    }
+
+    private void attempt(Borrow borrow) {
+        if (!tryBorrow(borrow)) {
+            parked.offerLast(borrow);
+            if (polling.compareAndSet(false, true)) {
+                SCHEDULER.schedule(pollTask, PARK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            // a connection may have come back between the poll and the park
+            signal();
+        }
+    }
+
+    /**
+     * @return false if the pool had no free connection and the borrow should stay parked
+     */
+    private boolean tryBorrow(final Borrow borrow) {
+        CircuitBreaker breaker = ads.getCircuitBreaker();
+        if (borrow.future.isDone()) {
+            settle(breaker, borrow);
+            return true;
+        }
+        Connection connection;
+        try {
+            connection = ads.pollConnection(borrow.needParams, borrow.username, borrow.password);
+            if (connection == null) {
+                return false;
+            }
+        } catch (SQLException e) {
+            JdbcDriverMonitorProxy.PhyGetConnException dbErr = AbstractDataSource
+                .findPhyGetConnException(e);
+            if (dbErr != null
+                && (!borrow.permissionUsed || borrow.permission == CircuitBreaker.PERMITTED)) {
+                borrow.permissionUsed = true;
+                breaker.onFailure(borrow.permission, dbErr.isExceptionFatal());
+            }
+            RetryPolicy retry = ads.getRetryPolicy();
+            long delay = dbErr != null && !breaker.isClosed() ? -1L
+                : retry.nextDelay(borrow.attempt++, System.currentTimeMillis() - borrow.startTime);
+            if (delay < 0) {
+                settle(breaker, borrow);
+                if (dbErr != null) {
+                    ads.getMonitor().onFailure();
+                } else {
+                    ads.getMonitor().onTimeout();
+                }
+                borrow.future.completeExceptionally(new SQLException((dbErr != null
+                    ? "Get connection with DB error," : "Get connection timeout,")
+                                                                     + ads.describePool(), e));
+            } else {
+                ads.getMonitor().onRetry();
+                SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submitAttempt(borrow);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        if (!borrow.permissionUsed || borrow.permission == CircuitBreaker.PERMITTED) {
+            borrow.permissionUsed = true;
+            breaker.onSuccess(borrow.permission);
+        }
+        try {
+            AbstractDataSource.applyTransactionIsolation(connection,
+                borrow.transactionIsolation);
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            borrow.future.completeExceptionally(e);
+            return true;
+        }
+        Connection proxy = (Connection) Proxy.newProxyInstance(
+            AsyncConnectionAcquirer.class.getClassLoader(), new Class<?>[] { Connection.class },
+            new ReleaseSignalHandler(ads.monitorConnection(connection)));
+        if (borrow.future.complete(proxy)) {
+            ads.getMonitor().onBorrow(System.nanoTime() - borrow.startNanos);
+        } else {// timed out or cancelled meanwhile
+            closeQuietly(proxy);
+        }
+        return true;
+    }
+
+    private void settle(CircuitBreaker breaker, Borrow borrow) {
+        if (!borrow.permissionUsed) {
+            borrow.permissionUsed = true;
+            breaker.release(borrow.permission);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // returned to the pool anyway
+        }
+    }
+
+    /**
+     * One pending getConnectionAsync() call. Owned by exactly one of: the parked queue, a
+     * scheduled retry, or the thread running tryBorrow.
+     */
+    private final class Borrow {
+
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        final boolean                       needParams;
+        final String                        username;
+        final String                        password;
+        final String                        transactionIsolation;
+        final long                          startTime;
+        final long                          startNanos;
+        final long                          deadline;
+        int                                 permission;
+        boolean                             permissionUsed;
+        int                                 attempt;
+
+        Borrow(boolean needParams, String username, String password,
+               String transactionIsolation) {
+            this.needParams = needParams;
+            this.username = username;
+            this.password = password;
+            this.transactionIsolation = transactionIsolation;
+            this.startTime = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+            this.deadline = startTime + Math.max(ads.getMaxWait(),
+                ads.getRetryPolicy().getBudgetMillis());
+        }
+    }
+
+    /**
+     * Wakes the parked borrows when an async-borrowed connection goes back to the pool.
+     */
+    private final class ReleaseSignalHandler implements InvocationHandler {
+
+        private final Connection    target;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        ReleaseSignalHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (released.compareAndSet(false, true)) {
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    } finally {
+                        if (!parked.isEmpty()) {
+                            signal();
+                        }
+                    }
+                }
+                return null;
+            } else if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+                return target;
+            } else if ("isWrapperFor".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+                return Boolean.TRUE;
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
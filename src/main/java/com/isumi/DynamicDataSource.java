@@ -1,20 +1,50 @@
 package com.isumi;
 
 import java.io.*;
+import java.security.GeneralSecurityException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import com.isumi.driver.MySQLDriverMonitorProxy;
+import com.isumi.jfr.JfrEvents;
+import com.isumi.jmx.DynamicDataSourceMXBean;
+import com.isumi.jmx.MBeanRegistrar;
+import com.isumi.jmx.NodeStatus;
+import com.isumi.metrics.MetricsRegistry;
+import com.isumi.metrics.MetricsSink;
+import com.isumi.metrics.MetricsSource;
+import com.isumi.monitor.LatencyHistogram;
+import com.isumi.monitor.MonitorSnapshot;
+import com.isumi.monitor.SlowSqlRecorder;
+import com.isumi.util.CircuitBreaker;
 import com.isumi.util.CommonPropertyConfigurer;
+import com.isumi.util.CredentialCodecs;
+import com.isumi.util.HealthCheckScheduler;
+import com.isumi.util.PropertiesFileWatcher;
+import com.isumi.util.RetryPolicy;
+import com.isumi.util.RollingFileWriter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
@@ -27,7 +57,7 @@ import org.springframework.beans.factory.InitializingBean;
 
 
 public class DynamicDataSource implements DataSource, InitializingBean, BeanFactoryAware,
-                               BeanNameAware {
+                               BeanNameAware, DynamicDataSourceMXBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DynamicDataSource.class);
 
@@ -46,120 +76,365 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
     private final static String            PROP_CONNECTIONPROPERTIES  = "connectionProperties";
     private final static String            PROP_CONNECTTIMEOUT        = "connectTimeout";
     private final static String            PROP_SOCKETTIMEOUT         = "socketTimeout";
+    private final static String            PASSWORD_CODEC_STR         = "passwordCodec";
+    private final static String            PASSWORD_KEY_STR           = "passwordKey";
+    private final static String            STANDBY_MIN_IDLE_STR       = "standbyMinIdle";
+    private final static String            STANDBY_REFRESH_MILLIS_STR = "standbyRefreshMillis";
+    private final static long              STANDBY_REFRESH_DEFAULT    = 30000L;
     private String                         connectTimeout             = "1000";
     private String                         socketTimeout              = "300000";
-    private volatile AbstractDataSource    currentAds;
-    private volatile int                   currentAdsIdx              = 0;
-    private volatile Properties            currentDbProperties;
-    private final List<Properties>         dbPropertiesList           = new ArrayList<Properties>(
-        2);
-    private final List<AbstractDataSource> adsList                    = new ArrayList<AbstractDataSource>(
-        2);
-    private final ReadWriteLock            failoverLock               = new ReentrantReadWriteLock(
-        true);
-
-    private volatile AdsFailoverCheckThread adsFailoverCheckThread = new AdsFailoverCheckThread();
+    private final AtomicReference<ActiveAds> activeAds                = new AtomicReference<ActiveAds>(
+        ActiveAds.NONE);
+
+    /**
+     * Pool settings that can change without rebuilding the pool.
+     */
+    private static final Set<String>       SIZING_KEYS                = new HashSet<String>(
+        Arrays.asList("maxActive", "maxIdle", "minIdle", "initialSize"));
+    private final static String            ARCHIVE_IDLE_TIME_STR      = "archiveIdleTime";
+    private final static String            SLOW_SQL_LOG_FILE_STR      = "slowSqlLogFile";
+    private final static String            SLOW_SQL_LOG_MAX_BYTES_STR = "slowSqlLogMaxBytes";
+    private final static String            SLOW_SQL_LOG_MAX_FILES_STR = "slowSqlLogMaxFiles";
+    private final static String            SLOW_SQL_RING_SIZE_STR     = "slowSqlRingSize";
+    private final static String            DRAIN_TIMEOUT_MILLIS_STR   = "drainTimeoutMillis";
+    private final static long              DRAIN_TIMEOUT_DEFAULT      = 30000L;
+    private final static long              DRAIN_CHECK_MILLIS         = 100L;
+
+    private final static String HEALTH_CHECK_INTERVAL_STR         = "healthCheckIntervalMillis";
+    private final static String HEALTH_CHECK_MAX_INTERVAL_STR     = "healthCheckMaxIntervalMillis";
+    private final static String HEALTH_CHECK_TIMEOUT_SECONDS_STR  = "healthCheckTimeoutSeconds";
+    private final static long   HEALTH_CHECK_INTERVAL_DEFAULT     = 3000L;
+    private final static long   HEALTH_CHECK_MAX_INTERVAL_DEFAULT = 60000L;
+
+    private volatile HealthCheckScheduler.Handle failoverCheck;
+    private volatile HealthCheckScheduler.Handle monitorFlush;
+    private volatile SlowSqlRecorder             slowSqlRecorder;
 
     private String transactionIsolation = null;
 
-    private class AdsFailoverCheckThread extends Thread {
+    private boolean lazyConnection = false;
 
-        private static final int WAIT_TIME_DEFAULT = 3000;
+    private boolean                        watchConfig          = false;
+    private long                           watchDebounceMillis  = 1000L;
+    private volatile PropertiesFileWatcher configWatcher;
 
-        private volatile boolean isContinue = true;
+    private boolean asyncStartup       = false;
+    private long    readyTimeoutMillis = 3000L;
 
-        public void stopCheck() {
-            this.isContinue = false;
+    // 无可用节点时readyFuture异常完成,节点恢复后换上已完成的future
+    private final AtomicReference<CompletableFuture<DataSource>> readyFuture = new AtomicReference<CompletableFuture<DataSource>>(
+        new CompletableFuture<DataSource>());
+    private final Object                                         readyLock   = new Object();
+    private volatile HealthCheckScheduler.Handle                 readyCheck;
+    private volatile boolean                                     closed      = false;
+
+    private boolean             jmxEnabled = true;
+    private volatile ObjectName objectName;
+
+    private final LongAdder failovers      = new LongAdder();
+    private final LongAdder failbacks      = new LongAdder();
+    private final LongAdder forcedSwitches = new LongAdder();
+
+    private static final String[] DS_LABELS      = { "datasource" };
+    private static final String[] NODE_LABELS    = { "datasource", "node" };
+    private static final String[] KIND_LABELS    = { "datasource", "kind" };
+    private static final String[] ATTEMPT_LABELS = { "datasource", "node", "attempt" };
+
+    /**
+     * Reports the counters the nodes keep anyway plus the pool state read at collection
+     * time, nothing is recorded for it on the getConnection() path.
+     */
+    private final MetricsSource metricsSource = new MetricsSource() {
+        @Override
+        public void collect(MetricsSink sink) {
+            collectMetrics(sink);
         }
 
         @Override
-        public void run() {
-            if (adsList.size() <= 1) {
-                return;
+        public String toString() {
+            return "DynamicDataSource[" + beanName + "]";
+        }
+    };
+
+    /**
+     * Immutable snapshot of the nodes and of the one borrowers are currently routed to. It is
+     * only ever replaced as a whole, so getConnection() needs a single volatile read and never
+     * blocks, readers never see a reload half applied, and the version lets a switch detect
+     * that a reload or another switch won. Neither the lists nor the Properties in them are
+     * changed once published.
+     */
+    private static final class ActiveAds {
+
+        static final ActiveAds NONE = new ActiveAds(Collections.<AbstractDataSource> emptyList(),
+                                        Collections.<Properties> emptyList(),
+                                        Collections.<Properties> emptyList(), -1, 0L);
+
+        final List<AbstractDataSource> nodes;
+        final List<Properties>         nodeProperties;
+        /**
+         * Per node properties as configured, before generateAds rewrites them; what a reload
+         * compares against.
+         */
+        final List<Properties>         rawProperties;
+        final AbstractDataSource       ads;
+        final int                      idx;
+        final Properties               dbProperties;
+        final long                     version;
+
+        ActiveAds(List<AbstractDataSource> nodes, List<Properties> nodeProperties,
+                  List<Properties> rawProperties, int idx, long version) {
+            this.nodes = nodes;
+            this.nodeProperties = nodeProperties;
+            this.rawProperties = rawProperties;
+            this.ads = idx >= 0 ? nodes.get(idx) : null;
+            this.idx = idx;
+            this.dbProperties = idx >= 0 ? nodeProperties.get(idx) : null;
+            this.version = version;
+        }
+
+        /**
+         * @return the same nodes, traffic routed to node <code>idx</code>
+         */
+        ActiveAds next(int idx) {
+            return new ActiveAds(nodes, nodeProperties, rawProperties, idx, version + 1);
+        }
+
+        /**
+         * @return a new set of nodes, the lists are copied
+         */
+        ActiveAds next(List<AbstractDataSource> nodes, List<Properties> nodeProperties,
+                       List<Properties> rawProperties, int idx) {
+            return new ActiveAds(
+                Collections.unmodifiableList(new ArrayList<AbstractDataSource>(nodes)),
+                Collections.unmodifiableList(new ArrayList<Properties>(nodeProperties)),
+                Collections.unmodifiableList(new ArrayList<Properties>(rawProperties)), idx,
+                version + 1);
+        }
+
+        String url(int idx) {
+            return nodeProperties.get(idx).getProperty("url");
+        }
+    }
+
+    /**
+     * Runs the failover check as soon as the circuit breaker of the active node opens.
+     */
+    private final CircuitBreaker.Listener breakerListener = new CircuitBreaker.Listener() {
+        @Override
+        public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State from,
+                                  CircuitBreaker.State to) {
+            AbstractDataSource ads = activeAds.get().ads;
+            if (to == CircuitBreaker.State.OPEN && ads != null
+                && ads.getCircuitBreaker() == breaker) {
+                HealthCheckScheduler.Handle check = failoverCheck;
+                if (check != null) {
+                    check.trigger();
+                }
             }
+        }
+    };
 
-            Thread.currentThread().setName("-" + beanName + "-Ads Failover Check Thread-");
-
-            long waitTime = NumberUtils.toLong(dbPropertiesList.get(0).getProperty("maxWait"),
-                WAIT_TIME_DEFAULT);
-
-            Set<Integer> failAdsSet = new TreeSet<Integer>();
-            while (isContinue) {
-                try {
-                    if (currentAds.needChange(waitTime)) {
-                        int currentFailIdx = currentAdsIdx;
-
-                        for (int i = 0; i < adsList.size(); i++) {
-                            if (i != currentAdsIdx) {
-                                AbstractDataSource tmpAds = adsList.get(i);
-                                try {
-                                    tmpAds.getConnectionWithLock(false, null, null,
-                                        transactionIsolation).close();
-                                    failoverLock.writeLock().lock();
-                                    try {
-                                        currentAds = tmpAds;
-                                        currentDbProperties = dbPropertiesList.get(i);
-                                        currentAdsIdx = i;
-                                        LOGGER.warn("\n-------------Failover to DB 【"
-                                                    + currentDbProperties.getProperty("url") + "】");
-                                    } finally {
-                                        failoverLock.writeLock().unlock();
-                                    }
-                                    adsList.get(currentFailIdx).flushMonitorData(false);
-                                    break;
-                                } catch (Exception e) {
-                                    LOGGER.error("\n-------------Failover test error", e);
-                                }
-                            }
-                        }
-                        failAdsSet.add(Integer.valueOf(currentFailIdx));
-
-                    } else if (failAdsSet.size() > 0) {
-                        boolean needChange = false;
-                        int changeIdx = currentAdsIdx;
-                        int beforeChangeIdx = currentAdsIdx;
-                        Set<Integer> sucessAdsSet = new HashSet<Integer>();
-                        for (Integer i : failAdsSet) {
-                            AbstractDataSource tmpAds = adsList.get(i);
-                            try {
-                                tmpAds
-                                    .getConnectionWithLock(false, null, null, transactionIsolation)
-                                    .close();
-                                if (i.intValue() < changeIdx) {
-                                    needChange = true;
-                                    changeIdx = i.intValue();
-                                }
-                                sucessAdsSet.add(i);
-                                LOGGER.info("\n-------------Datasource 【"
-                                            + dbPropertiesList.get(i).getProperty("url")
-                                            + "】 test Success");
-                            } catch (Exception e) {
-                                LOGGER.error("\n-------------Datasource 【"
-                                             + dbPropertiesList.get(i).getProperty("url")
-                                             + "】 test fail",
-                                    e);
+    private boolean switchActiveAds(ActiveAds expect, int idx) {
+        return activeAds.compareAndSet(expect, expect.next(idx));
+    }
+
+    /**
+     * Failover / failback check, run by the shared HealthCheckScheduler every
+     * healthCheckIntervalMillis (backing off to healthCheckMaxIntervalMillis while a failed
+     * node stays down) and right away when the breaker of the active node opens.
+     */
+    private class AdsFailoverCheck implements HealthCheckScheduler.Check {
+
+        private final Set<Integer> failAdsSet = new TreeSet<Integer>();
+        private final int          probeTimeoutSeconds;
+        private final long         standbyRefreshMillis;
+        private long               lastStandbyRefresh = 0L;
+
+        AdsFailoverCheck(Properties properties, boolean masterFailed) {
+            if (masterFailed) {
+                failAdsSet.add(Integer.valueOf(0));
+            }
+            this.probeTimeoutSeconds = NumberUtils.toInt(
+                properties.getProperty(HEALTH_CHECK_TIMEOUT_SECONDS_STR), 1);
+            this.standbyRefreshMillis = NumberUtils.toLong(
+                properties.getProperty(STANDBY_REFRESH_MILLIS_STR), STANDBY_REFRESH_DEFAULT);
+        }
+
+        @Override
+        public boolean run() {
+            boolean healthy = true;
+            ActiveAds current = activeAds.get();
+            if (current.ads.needChange()) {
+                int currentFailIdx = current.idx;
+                healthy = false;
+
+                for (int i = 0; i < current.nodes.size(); i++) {
+                    if (i != currentFailIdx) {
+                        Object jfrEvent = JfrEvents.beginSwitch();
+                        try {
+                            prepareForSwitch(i, current);
+                            boolean switched = switchActiveAds(current, i);
+                            JfrEvents.endSwitch(jfrEvent, beanName, "failover",
+                                current.url(currentFailIdx), current.url(i), switched);
+                            if (switched) {
+                                failovers.increment();
+                                LOGGER.warn("\n-------------Failover to DB 【" + current.url(i)
+                                            + "】");
+                                current.ads.flushMonitorData(false);
+                                markReady(current.nodes.get(i));
                             }
+                            break;
+                        } catch (Exception e) {
+                            JfrEvents.endSwitch(jfrEvent, beanName, "failover",
+                                current.url(currentFailIdx), current.url(i), false);
+                            LOGGER.error("\n-------------Failover test error", e);
                         }
-                        if (sucessAdsSet.size() > 0) {
-                            failAdsSet.removeAll(sucessAdsSet);
+                    }
+                }
+                failAdsSet.add(Integer.valueOf(currentFailIdx));
+
+            } else if (failAdsSet.size() > 0) {
+                boolean needChange = false;
+                int changeIdx = current.idx;
+                int beforeChangeIdx = current.idx;
+                Set<Integer> sucessAdsSet = new HashSet<Integer>();
+                for (Integer i : failAdsSet) {
+                    if (current.nodes.get(i).probe(probeTimeoutSeconds)) {
+                        if (i.intValue() < changeIdx) {
+                            needChange = true;
+                            changeIdx = i.intValue();
                         }
-                        if (needChange) {
-                            failoverLock.writeLock().lock();
-                            try {
-                                currentAds = adsList.get(changeIdx);
-                                currentDbProperties = dbPropertiesList.get(changeIdx);
-                                currentAdsIdx = changeIdx;
-                                LOGGER.info("Datasource 【\n-------------"
-                                            + currentDbProperties.getProperty("url") + "】rework");
-                            } finally {
-                                failoverLock.writeLock().unlock();
-                            }
-                            adsList.get(beforeChangeIdx).flushMonitorData(false);
+                        sucessAdsSet.add(i);
+                        LOGGER.info("\n-------------Datasource 【" + current.url(i)
+                                    + "】 test Success");
+                        markReady(current.nodes.get(i));
+                    } else {
+                        LOGGER.error("\n-------------Datasource 【" + current.url(i)
+                                     + "】 test fail");
+                    }
+                }
+                if (sucessAdsSet.size() > 0) {
+                    failAdsSet.removeAll(sucessAdsSet);
+                }
+                healthy = failAdsSet.isEmpty();
+                if (needChange) {
+                    Object jfrEvent = JfrEvents.beginSwitch();
+                    boolean switched = prepareForFailback(changeIdx, current)
+                                       && switchActiveAds(current, changeIdx);
+                    JfrEvents.endSwitch(jfrEvent, beanName, "failback",
+                        current.url(beforeChangeIdx), current.url(changeIdx), switched);
+                    if (switched) {
+                        failbacks.increment();
+                        LOGGER.info("Datasource 【\n-------------" + current.url(changeIdx)
+                                    + "】rework");
+                        current.ads.flushMonitorData(false);
+                    }
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastStandbyRefresh >= standbyRefreshMillis) {
+                lastStandbyRefresh = now;
+                refreshStandby(activeAds.get(), failAdsSet);
+            }
+            return healthy;
+        }
+    }
+
+    /**
+     * 没有确认过可用节点时(如启动时所有节点均不可用)持续探测,任一节点恢复即重新就绪
+     */
+    private class ReadyCheck implements HealthCheckScheduler.Check {
+
+        private final int probeTimeoutSeconds;
+
+        ReadyCheck(Properties properties) {
+            this.probeTimeoutSeconds = NumberUtils.toInt(
+                properties.getProperty(HEALTH_CHECK_TIMEOUT_SECONDS_STR), 1);
+        }
+
+        @Override
+        public boolean run() {
+            if (isReady()) {
+                stopReadyCheck();
+                return true;
+            }
+            ActiveAds current = activeAds.get();
+            for (int i = 0; i < current.nodes.size(); i++) {
+                int idx = (current.idx + i) % current.nodes.size();
+                if (!current.nodes.get(idx).probe(probeTimeoutSeconds)) {
+                    continue;
+                }
+                if (current.nodes.size() > 1) {
+                    // 同步启动失败时failover检查没有启动,节点恢复后补上
+                    synchronized (readyLock) {
+                        if (!closed && readyCheck != null && failoverCheck == null) {
+                            startFailoverCheck(current);
                         }
                     }
-                } catch (InterruptedException e) {
-                    isContinue = false;
+                    // 与启动检查一致:当前节点不可用而其他节点可用时熔断当前节点,由failover检查切换
+                    HealthCheckScheduler.Handle check = failoverCheck;
+                    if (idx != current.idx && check != null) {
+                        current.ads.getCircuitBreaker().trip();
+                        check.trigger();
+                    }
                 }
+                markReady(current.nodes.get(idx));
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static int getStandbyMinIdle(ActiveAds nodes, int idx) {
+        return Math.max(0, NumberUtils.toInt(
+            nodes.nodeProperties.get(idx).getProperty(STANDBY_MIN_IDLE_STR), 0));
+    }
+
+    /**
+     * Before traffic moves to node idx: in warm standby mode fill it up to the connection
+     * count the current pool runs with, otherwise just test one connection.
+     */
+    private void prepareForSwitch(int idx, ActiveAds current) throws SQLException {
+        AbstractDataSource target = current.nodes.get(idx);
+        int standbyMinIdle = getStandbyMinIdle(current, idx);
+        if (standbyMinIdle <= 0) {
+            target.getConnectionWithLock(false, null, null, transactionIsolation).close();
+            return;
+        }
+        int steadySize = Math.max(standbyMinIdle, Math.max(current.ads.getPoolSize(),
+            NumberUtils.toInt(current.dbProperties.getProperty("minIdle"), 0)));
+        int warmed = target.warmUp(steadySize);
+        LOGGER.warn("\n-------------Warm up DB 【" + current.url(idx) + "】 " + warmed + "/"
+                    + steadySize + " connections");
+    }
+
+    private boolean prepareForFailback(int idx, ActiveAds current) {
+        if (getStandbyMinIdle(current, idx) <= 0) {
+            return true;// already tested
+        }
+        try {
+            prepareForSwitch(idx, current);
+            return true;
+        } catch (SQLException e) {
+            LOGGER.error("\n-------------Datasource 【" + current.url(idx) + "】 warm up fail", e);
+            return false;
+        }
+    }
+
+    /**
+     * Keeps standbyMinIdle validated idle connections in every healthy standby pool.
+     */
+    private void refreshStandby(ActiveAds current, Set<Integer> failAdsSet) {
+        for (int i = 0; i < current.nodes.size(); i++) {
+            int standbyMinIdle = getStandbyMinIdle(current, i);
+            if (i == current.idx || standbyMinIdle <= 0
+                || failAdsSet.contains(Integer.valueOf(i))) {
+                continue;
+            }
+            try {
+                current.nodes.get(i).warmUp(standbyMinIdle);
+            } catch (SQLException e) {
+                LOGGER.warn("\n-------------Standby 【" + current.url(i) + "】 refresh fail", e);
             }
         }
     }
@@ -220,32 +495,32 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
 
     @Override
     public PrintWriter getLogWriter() throws SQLException {
-        return currentAds.getLogWriter();
+        return getAds().getLogWriter();
     }
 
     @Override
     public void setLogWriter(PrintWriter out) throws SQLException {
-        currentAds.setLogWriter(out);
+        getAds().setLogWriter(out);
     }
 
     @Override
     public void setLoginTimeout(int seconds) throws SQLException {
-        currentAds.setLoginTimeout(seconds);
+        getAds().setLoginTimeout(seconds);
     }
 
     @Override
     public int getLoginTimeout() throws SQLException {
-        return currentAds.getLoginTimeout();
+        return getAds().getLoginTimeout();
     }
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
-        return currentAds.unwrap(iface);
+        return getAds().unwrap(iface);
     }
 
     @Override
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
-        return currentAds.isWrapperFor(iface);
+        return getAds().isWrapperFor(iface);
     }
 
     @Override
@@ -271,20 +546,71 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
                 poolId = yccPropertyConfigurer.getPoolId();
                 dataId = beanName.concat(".properties");
                 File classPath = new File(this.getClass().getResource("/").getPath());
-                Properties pro = CommonPropertyConfigurer
-                    .loadProperties(new File(classPath, dataId));
-                Hashtable<String, String> propsHashtable = this.setSystemProperty(pro);
-                for (Entry<String, String> kvsEntry : propsHashtable.entrySet()) {
-                    if (kvsEntry.getKey().toString().startsWith("jdbc.")) {
-                        ddsProperties.put(kvsEntry.getKey().substring(5),
-                            kvsEntry.getValue().trim());
-                    }
+                File configFile = new File(classPath, dataId);
+                ddsProperties.putAll(loadDdsProperties(configFile));
+                if (watchConfig) {
+                    configWatcher = new PropertiesFileWatcher(configFile, watchDebounceMillis,
+                        new PropertiesFileWatcher.Listener() {
+                            @Override
+                            public void onChange(File file) {
+                                reloadDdsProperties(file);
+                            }
+                        });
                 }
             }
         } else {
             throw new RuntimeException(beanName + " defined error, please check spring config.");
         }
         startDataSource();
+        if (jmxEnabled) {
+            objectName = MBeanRegistrar.register(this, "DynamicDataSource", beanName);
+        }
+        MetricsRegistry.register(metricsSource);
+        if (configWatcher != null) {
+            configWatcher.start();
+            LOGGER.info("\n-------------动态数据源【" + beanName + "】监听配置文件"
+                        + configWatcher.getFile() + "-------------");
+        }
+    }
+
+    private Properties loadDdsProperties(File configFile) {
+        Properties properties = new Properties();
+        Properties pro = CommonPropertyConfigurer.loadProperties(configFile);
+        Hashtable<String, String> propsHashtable = this.setSystemProperty(pro);
+        for (Entry<String, String> kvsEntry : propsHashtable.entrySet()) {
+            if (kvsEntry.getKey().toString().startsWith("jdbc.")) {
+                properties.put(kvsEntry.getKey().substring(5), kvsEntry.getValue().trim());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * 配置文件变化后重新解析并应用到运行中的数据源,新配置有误时保留原配置
+     */
+    private synchronized void reloadDdsProperties(File configFile) {
+        Properties loaded = loadDdsProperties(configFile);
+        if (loaded.isEmpty()) {
+            LOGGER.warn("\n-------------动态数据源【" + beanName + "】配置文件" + dataId
+                        + "无jdbc配置,忽略本次变更-------------");
+            return;
+        }
+        if (loaded.equals(ddsProperties)) {
+            return;
+        }
+        Properties previous = (Properties) ddsProperties.clone();
+        ddsProperties.clear();
+        ddsProperties.putAll(loaded);
+        try {
+            setDataSourceProperties();
+            LOGGER.info("\n-------------动态数据源【" + beanName + "】配置文件" + dataId
+                        + "变更已生效-------------");
+        } catch (RuntimeException e) {
+            ddsProperties.clear();
+            ddsProperties.putAll(previous);
+            LOGGER.error("\n-------------动态数据源【" + beanName + "】配置文件" + dataId
+                         + "变更应用失败,保留原配置-------------", e);
+        }
     }
 
     private Hashtable<String, String> setSystemProperty(Properties prop) {
@@ -339,7 +665,7 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
 
     }
 
-    public void setDataSourceProperties() {
+    public synchronized void setDataSourceProperties() {
         if (ddsProperties.isEmpty()) {
             throw new RuntimeException(dataId + " has some problem. Please check.");
         }
@@ -353,7 +679,9 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
         setDefaultDataSourceProperties(properties);
 
         for (String spn : ydd2Properties.stringPropertyNames()) {
-            properties.setProperty(spn, ydd2Properties.getProperty(spn));
+            if (!properties.containsKey(spn)) {
+                properties.setProperty(spn, ydd2Properties.getProperty(spn));
+            }
         }
 
         Set<String> slaveHeadSet = new TreeSet<String>();
@@ -398,21 +726,111 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
                 }
             }
         }
+        // 热备模式:备库保持standbyMinIdle个空闲连接,而不是0
+        for (int i = 1; i < dbPropertiesList.size(); i++) {
+            final Properties tmpProperties = dbPropertiesList.get(i);
+            int standbyMinIdle = NumberUtils.toInt(tmpProperties.getProperty(STANDBY_MIN_IDLE_STR),
+                0);
+            if (standbyMinIdle > 0) {
+                tmpProperties.put("initialSize", String.valueOf(standbyMinIdle));
+                tmpProperties.put("minIdle", String.valueOf(standbyMinIdle));
+            }
+        }
 
         boolean setMonitorProperties = false;
+        String[] dsNames = new String[dbPropertiesList.size()];
+        for (int i = 0; i < dbPropertiesList.size(); i++) {
+            if (i == 0) {
+                dsNames[i] = dataId.substring(0, dataId.length() - 11).concat("-Master");
+            } else {
+                dsNames[i] = dataId.substring(0, dataId.length() - 11).concat("-")
+                    .concat(slaveHeads[i - 1]);
+            }
+        }
+
+        // 与当前节点按名称逐个比较:未变化的沿用,只改连接数的原地调整,其余重建
+        ActiveAds previous = activeAds.get();
+        Map<String, Integer> oldIdxByName = new HashMap<String, Integer>();
+        for (int i = 0; i < previous.nodes.size(); i++) {
+            oldIdxByName.put(previous.nodes.get(i).getDsName(), Integer.valueOf(i));
+        }
         List<AbstractDataSource> adsList = new ArrayList<AbstractDataSource>(
             dbPropertiesList.size());
+        List<Properties> rawPropertiesList = new ArrayList<Properties>(dbPropertiesList.size());
+        Set<AbstractDataSource> reused = new HashSet<AbstractDataSource>();
+        List<Integer> toBuild = new ArrayList<Integer>();
+        List<Integer> toResize = new ArrayList<Integer>();
+        int kept = 0, rebuilt = 0;
         for (int i = 0; i < dbPropertiesList.size(); i++) {
-            if (i == 0) {
-                adsList.add(generateAds(dbPropertiesList.get(i),
-                    dataId.substring(0, dataId.length() - 11).concat("-Master")));
+            Properties dbProperties = dbPropertiesList.get(i);
+            Properties rawProperties = (Properties) dbProperties.clone();
+            rawPropertiesList.add(rawProperties);
+            Integer oldIdx = oldIdxByName.get(dsNames[i]);
+            if (oldIdx != null) {
+                AbstractDataSource oldAds = previous.nodes.get(oldIdx.intValue());
+                Properties oldDbProperties = previous.nodeProperties.get(oldIdx.intValue());
+                Set<String> changed = changedKeys(previous.rawProperties.get(oldIdx.intValue()),
+                    rawProperties);
+                if (changed.isEmpty()) {
+                    kept++;
+                } else if (SIZING_KEYS.containsAll(changed) && oldAds.canResize(rawProperties)) {
+                    oldDbProperties = (Properties) oldDbProperties.clone();
+                    for (String key : changed) {
+                        if (rawProperties.containsKey(key)) {
+                            oldDbProperties.put(key, rawProperties.get(key));
+                        } else {
+                            oldDbProperties.remove(key);
+                        }
+                    }
+                    toResize.add(Integer.valueOf(i));
+                } else {
+                    oldAds = null;
+                }
+                if (oldAds != null) {
+                    adsList.add(oldAds);
+                    dbPropertiesList.set(i, oldDbProperties);
+                    reused.add(oldAds);
+                    continue;
+                }
+            }
+            adsList.add(null);
+            toBuild.add(Integer.valueOf(i));
+        }
+        rebuilt = toBuild.size();
+        try {
+            if (asyncStartup && toBuild.size() > 1) {
+                generateAdsInParallel(dbPropertiesList, dsNames, toBuild, adsList);
             } else {
-                adsList.add(generateAds(dbPropertiesList.get(i), dataId
-                    .substring(0, dataId.length() - 11).concat("-").concat(slaveHeads[i - 1])));
+                for (Integer idx : toBuild) {
+                    adsList.set(idx.intValue(),
+                        generateAds(dbPropertiesList.get(idx.intValue()), dsNames[idx.intValue()]));
+                }
+            }
+        } catch (RuntimeException e) {
+            // 当前节点和连接数都还没有改动,关闭本次新建的节点即可
+            for (Integer idx : toBuild) {
+                AbstractDataSource ads = adsList.get(idx.intValue());
+                if (ads != null) {
+                    ads.getCircuitBreaker().removeListener(breakerListener);
+                    ads.close();
+                }
+            }
+            throw e;
+        }
+        // 新节点全部创建成功后才调整沿用节点的连接数
+        for (Integer idx : toResize) {
+            if (adsList.get(idx.intValue()).resize(rawPropertiesList.get(idx.intValue()))) {
+                LOGGER.info("\n-------------Datasource 【" + dsNames[idx.intValue()] + "】 resized");
+            } else {
+                LOGGER.warn("\n-------------Datasource 【" + dsNames[idx.intValue()]
+                            + "】 resize refused, keeps its old sizing");
             }
         }
 
-        AbstractDataSource tmpAds = adsList.get(0);
+        for (AbstractDataSource ads : adsList) {
+            setMonitorProperties |= ads.isMonitorSupport();
+        }
+
         StringBuilder builder = new StringBuilder();
         builder.append("\n-------------动态数据源【").append(beanName).append("】代理模块启动-------------")
             .append("\n-------------动态数据源【").append(beanName).append("】配置文件为").append(dataId)
@@ -424,40 +842,61 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
         LOGGER.info(builder.toString());
         builder.delete(0, builder.length() - 1);
 
-        if (adsFailoverCheckThread != null && adsFailoverCheckThread.isAlive()) {
-            adsFailoverCheckThread.stopCheck();
-            try {
-                adsFailoverCheckThread.join();
-            } catch (InterruptedException e) {
-            }
-            adsFailoverCheckThread = new AdsFailoverCheckThread();
-        }
+        stopReadyCheck();
+        stopFailoverCheck();
 
-        currentAds = tmpAds;
-        currentAdsIdx = 0;
-        currentDbProperties = dbPropertiesList.get(currentAdsIdx);
+        // 故障切换中(主库熔断且当前节点沿用)时保持当前节点,由failover检查负责切回
+        ActiveAds current = activeAds.get();
+        int activeIdx = 0;
+        if (current.ads != null && current.idx > 0 && reused.contains(current.ads)
+            && reused.contains(adsList.get(0)) && adsList.get(0).needChange()) {
+            activeIdx = adsList.indexOf(current.ads);
+        }
 
-        if (this.adsList.size() > 0) {
-            for (AbstractDataSource ads : this.adsList) {
-                ads.close();
+        List<AbstractDataSource> retired = new ArrayList<AbstractDataSource>();
+        for (AbstractDataSource ads : current.nodes) {
+            if (!reused.contains(ads)) {
+                retired.add(ads);
             }
-            this.adsList.clear();
-            for (Properties dbProperties : this.dbPropertiesList) {
-                dbProperties.clear();
+        }
+        ActiveAds next = current.next(adsList, dbPropertiesList, rawPropertiesList, activeIdx);
+        activeAds.set(next);
+        stopMonitorFlush();
+        if (setMonitorProperties) {
+            startMonitorFlush(NumberUtils.toLong(
+                dbPropertiesList.get(0).getProperty(ARCHIVE_IDLE_TIME_STR), 300L) * 1000L);
+            if (slowSqlRecorder == null) {
+                slowSqlRecorder = newSlowSqlRecorder(dbPropertiesList.get(0));
             }
-            this.dbPropertiesList.clear();
+        }
+        long drainTimeoutMillis = NumberUtils.toLong(
+            dbPropertiesList.get(0).getProperty(DRAIN_TIMEOUT_MILLIS_STR), DRAIN_TIMEOUT_DEFAULT);
+        for (AbstractDataSource ads : retired) {
+            retire(ads, drainTimeoutMillis);
+        }
+        if (retired.size() > 0 || kept > 0 || toResize.size() > 0) {
+            LOGGER.info("\n-------------动态数据源【" + beanName + "】重新加载:沿用" + kept + ",调整" + toResize.size()
+                        + ",重建" + rebuilt + ",下线" + retired.size() + "-------------");
         }
 
-        this.adsList.addAll(adsList);
-        this.dbPropertiesList.addAll(dbPropertiesList);
-
+        if (asyncStartup) {
+            if (next.nodes.size() > 1) {
+                startFailoverCheck(next);
+            }
+            checkConnectivityAsync(next, previous.nodes.isEmpty());
+            awaitReady();
+            return;
+        }
         try {
-            currentAds.getConnectionWithLock(false, null, null, transactionIsolation).close();
-            if (this.adsList.size() > 1) {
-                adsFailoverCheckThread.start();
+            next.ads.getConnectionWithLock(false, null, null, transactionIsolation).close();
+            if (next.nodes.size() > 1) {
+                startFailoverCheck(next);
             }
+            markReady(next.ads);
         } catch (SQLException e) {
-            if (this.adsList.size() > 1) {
+            readyFuture.get().completeExceptionally(e);
+            startReadyCheck();
+            if (next.nodes.size() > 1) {
                 LOGGER.warn("\n-------------动态数据源【" + beanName + "】配置文件" + dataId
                             + "调用不带用户名密码的getConnection()方法出错，自动Failover功能启动失败-------------",
                     e);
@@ -469,16 +908,274 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
         }
     }
 
+    private void startFailoverCheck(ActiveAds nodes) {
+        Properties masterProperties = nodes.nodeProperties.get(0);
+        failoverCheck = HealthCheckScheduler.getInstance().register(
+            "-" + beanName + "-Ads Failover Check-",
+            new AdsFailoverCheck(masterProperties, nodes.idx != 0),
+            healthCheckInterval(masterProperties), healthCheckMaxInterval(masterProperties));
+    }
+
+    private static long healthCheckInterval(Properties masterProperties) {
+        return NumberUtils.toLong(masterProperties.getProperty(HEALTH_CHECK_INTERVAL_STR),
+            NumberUtils.toLong(masterProperties.getProperty("maxWait"),
+                HEALTH_CHECK_INTERVAL_DEFAULT));
+    }
+
+    private static long healthCheckMaxInterval(Properties masterProperties) {
+        return NumberUtils.toLong(masterProperties.getProperty(HEALTH_CHECK_MAX_INTERVAL_STR),
+            HEALTH_CHECK_MAX_INTERVAL_DEFAULT);
+    }
+
+    private boolean isReady() {
+        CompletableFuture<DataSource> future = readyFuture.get();
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * 就绪:首次确认可用节点时完成readyFuture;之前因无可用节点而失败时换上已完成的future
+     */
+    private void markReady(AbstractDataSource ads) {
+        CompletableFuture<DataSource> future = readyFuture.get();
+        if (future.complete(this)
+            || future.isCompletedExceptionally()
+            && readyFuture.compareAndSet(future,
+                CompletableFuture.<DataSource> completedFuture(this))) {
+            LOGGER.info("\n-------------动态数据源【" + beanName + "】节点" + ads.getDsName()
+                        + "可用,数据源就绪-------------");
+            stopReadyCheck();
+        }
+    }
+
+    private void startReadyCheck() {
+        synchronized (readyLock) {
+            if (closed || readyCheck != null || isReady()) {
+                return;
+            }
+            Properties masterProperties = activeAds.get().nodeProperties.get(0);
+            readyCheck = HealthCheckScheduler.getInstance().register(
+                "-" + beanName + "-Ads Ready Check-", new ReadyCheck(masterProperties),
+                healthCheckInterval(masterProperties), healthCheckMaxInterval(masterProperties));
+        }
+    }
+
+    private void stopReadyCheck() {
+        synchronized (readyLock) {
+            HealthCheckScheduler.Handle check = readyCheck;
+            if (check != null) {
+                readyCheck = null;
+                check.cancel();
+            }
+        }
+    }
+
+    /**
+     * 并行创建各节点的连接池,单个节点建连慢时不拖慢其他节点
+     */
+    private void generateAdsInParallel(final List<Properties> propertiesList,
+                                       final String[] dsNames, List<Integer> toBuild,
+                                       List<AbstractDataSource> adsList) {
+        ExecutorService executor = Executors.newFixedThreadPool(toBuild.size(),
+            new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-" + beanName + "-startup-"
+                                                  + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try {
+            List<Future<AbstractDataSource>> futures = new ArrayList<Future<AbstractDataSource>>(
+                toBuild.size());
+            for (final Integer idx : toBuild) {
+                futures.add(executor.submit(new Callable<AbstractDataSource>() {
+                    @Override
+                    public AbstractDataSource call() {
+                        return generateAds(propertiesList.get(idx.intValue()),
+                            dsNames[idx.intValue()]);
+                    }
+                }));
+            }
+            // 任一节点失败也等其他节点创建完,调用方才能把新建的连接池全部关闭
+            RuntimeException error = null;
+            boolean interrupted = false;
+            for (int i = 0; i < toBuild.size(); i++) {
+                while (true) {
+                    try {
+                        adsList.set(toBuild.get(i).intValue(), futures.get(i).get());
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        if (error == null) {
+                            error = e.getCause() instanceof RuntimeException ? (RuntimeException) e
+                                .getCause() : new RuntimeException("Can't init datasource class.",
+                                e.getCause());
+                        }
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                if (error == null) {
+                    error = new RuntimeException("Interrupted while creating datasources.");
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 并行检查各节点连通性,不阻塞启动:任一节点可用即就绪,全部不可用时由就绪检查持续探测;
+     * 启动时(tripActive)当前节点不可用而其他节点可用则熔断当前节点,由failover检查立即切换。
+     * 重新加载时failover检查已在运行,不再熔断
+     */
+    private void checkConnectivityAsync(ActiveAds snapshot, final boolean tripActive) {
+        final int activeIdx = snapshot.idx;
+        final List<AbstractDataSource> nodes = snapshot.nodes;
+        final AtomicInteger pending = new AtomicInteger(nodes.size());
+        final AtomicBoolean activeFailed = new AtomicBoolean(false);
+        final AtomicBoolean otherHealthy = new AtomicBoolean(false);
+        final AtomicBoolean tripped = new AtomicBoolean(false);
+        final AtomicReference<Throwable> lastError = new AtomicReference<Throwable>();
+        for (int i = 0; i < nodes.size(); i++) {
+            final int idx = i;
+            final AbstractDataSource ads = nodes.get(i);
+            ads.getConnectionAsync(false, null, null, transactionIsolation).whenComplete(
+                new BiConsumer<Connection, Throwable>() {
+                    @Override
+                    public void accept(Connection connection, Throwable t) {
+                        if (t == null) {
+                            try {
+                                connection.close();
+                            } catch (SQLException e) {
+                                // returned to the pool anyway
+                            }
+                            if (idx != activeIdx) {
+                                otherHealthy.set(true);
+                            }
+                        } else {
+                            lastError.set(t);
+                            LOGGER.warn("\n-------------动态数据源【" + beanName + "】节点"
+                                        + ads.getDsName() + "连通性检查失败-------------", t);
+                            if (idx == activeIdx) {
+                                activeFailed.set(true);
+                            }
+                        }
+                        if (tripActive && activeFailed.get() && otherHealthy.get()
+                            && tripped.compareAndSet(false, true)) {
+                            nodes.get(activeIdx).getCircuitBreaker().trip();
+                        }
+                        if (t == null) {
+                            markReady(ads);
+                        }
+                        if (pending.decrementAndGet() == 0 && !isReady()) {
+                            readyFuture.get().completeExceptionally(new SQLException(
+                                "No datasource of " + dataId + " is reachable", lastError.get()));
+                            startReadyCheck();
+                        }
+                    }
+                });
+        }
+    }
+
+    private void awaitReady() {
+        if (readyTimeoutMillis <= 0) {
+            return;
+        }
+        try {
+            readyFuture.get().get(readyTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warn("\n-------------动态数据源【" + beanName + "】" + readyTimeoutMillis
+                        + "ms内未确认可用节点,继续启动-------------");
+        } catch (ExecutionException e) {
+            LOGGER.warn("\n-------------动态数据源【" + beanName + "】配置文件" + dataId
+                        + "所有节点均无法连接-------------", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Set<String> changedKeys(Properties oldProperties, Properties newProperties) {
+        Set<String> changed = new HashSet<String>();
+        for (String key : oldProperties.stringPropertyNames()) {
+            if (!oldProperties.getProperty(key).equals(newProperties.getProperty(key))) {
+                changed.add(key);
+            }
+        }
+        for (String key : newProperties.stringPropertyNames()) {
+            if (oldProperties.getProperty(key) == null) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Closes a node dropped by a reload once the connections borrowed from it are back, or
+     * after drainTimeoutMillis at the latest.
+     */
+    private void retire(final AbstractDataSource ads, long drainTimeoutMillis) {
+        ads.getCircuitBreaker().removeListener(breakerListener);
+        if (ads.getActiveCount() == 0) {
+            ads.flushMonitorData(false);
+            ads.close();
+            return;
+        }
+        final long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        final AtomicReference<HealthCheckScheduler.Handle> handle = new AtomicReference<HealthCheckScheduler.Handle>();
+        handle.set(HealthCheckScheduler.getInstance().register(
+            "-" + beanName + "-Drain " + ads.getDsName() + "-", new HealthCheckScheduler.Check() {
+                @Override
+                public boolean run() {
+                    int active = ads.getActiveCount();
+                    if (active > 0 && System.currentTimeMillis() < deadline) {
+                        return false;
+                    }
+                    if (active > 0) {
+                        LOGGER.warn("\n-------------Datasource 【" + ads.getDsName() + "】 closed with "
+                                    + active + " connections still borrowed");
+                    }
+                    ads.flushMonitorData(false);
+                    ads.close();
+                    handle.get().cancel();
+                    return true;
+                }
+            }, DRAIN_CHECK_MILLIS, DRAIN_CHECK_MILLIS * 20));
+    }
+
     private AbstractDataSource generateAds(Properties properties, String dsName) {
         String key = "password";
         String pw = properties.remove(key).toString();
-//        final String decryptPw = DesUtil.decrypt(pw);
-        final String decryptPw = pw;
+        String codec = (String) properties.remove(PASSWORD_CODEC_STR);
+        String codecKey = (String) properties.remove(PASSWORD_KEY_STR);
+        final String decryptPw;
+        if (StringUtils.isNotBlank(codec) && StringUtils.isNotEmpty(pw)) {
+            try {
+                decryptPw = CredentialCodecs.get(codec.trim(), codecKey).decrypt(pw);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Can't decrypt password of datasource [" + dsName
+                                           + "] with " + codec + ".", e);
+            }
+        } else {
+            decryptPw = pw;
+        }
         if (StringUtils.isEmpty(decryptPw)) {
             properties.put(key, pw);
         } else {
             properties.put(key, decryptPw);
         }
+        // 节点可能并行创建,只读写本节点的局部变量
+        String connectTimeout = this.connectTimeout;
+        String socketTimeout = this.socketTimeout;
         String PropConnectTimeout = properties.getProperty(PROP_CONNECTTIMEOUT);
         if (StringUtils.isNotBlank(PropConnectTimeout)) {
             connectTimeout = PropConnectTimeout;
@@ -516,6 +1213,7 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
             tmpDS.setDsName(dsName);
             tmpDS.setMonitorProperties(properties);
             tmpDS.setProperties(properties);
+            tmpDS.getCircuitBreaker().addListener(breakerListener);
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Wrong value in datasource property dataSourceClassName ["
                                        + dataSourceClassName + "].");
@@ -527,33 +1225,130 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
 
     @Override
     public Connection getConnection() throws SQLException {
-        failoverLock.readLock().lock();
-        try {
-            return currentAds.getConnectionWithLock(false, null, null, transactionIsolation);
-        } finally {
-            failoverLock.readLock().unlock();
+        if (lazyConnection) {
+            return LazyConnectionHandler.wrap(this, false, null, null);
         }
+        return activeAds.get().ads.getConnectionWithLock(false, null, null,
+            transactionIsolation);
     }
 
     @Override
     public Connection getConnection(String username, String password) throws SQLException {
-        failoverLock.readLock().lock();
-        try {
-            return currentAds.getConnectionWithLock(true, username, password, transactionIsolation);
-        } finally {
-            failoverLock.readLock().unlock();
+        if (lazyConnection) {
+            return LazyConnectionHandler.wrap(this, true, username, password);
+        }
+        return activeAds.get().ads.getConnectionWithLock(true, username, password,
+            transactionIsolation);
+    }
+
+    /**
+     * Non-blocking getConnection(): the future completes when the active pool hands out a
+     * connection, or fails with the SQLException getConnection() would have thrown.
+     */
+    public CompletableFuture<Connection> getConnectionAsync() {
+        if (lazyConnection) {
+            return CompletableFuture.completedFuture(LazyConnectionHandler.wrap(this, false, null,
+                null));
+        }
+        return activeAds.get().ads.getConnectionAsync(false, null, null, transactionIsolation);
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync(String username, String password) {
+        if (lazyConnection) {
+            return CompletableFuture.completedFuture(LazyConnectionHandler.wrap(this, true,
+                username, password));
+        }
+        return activeAds.get().ads.getConnectionAsync(true, username, password,
+            transactionIsolation);
+    }
+
+    /**
+     * 按archiveIdleTime(秒)周期归档各节点的监控数据
+     */
+    private void startMonitorFlush(long intervalMillis) {
+        monitorFlush = HealthCheckScheduler.getInstance().register(
+            "-" + beanName + "-Monitor Flush-", new HealthCheckScheduler.Check() {
+                @Override
+                public boolean run() {
+                    flushMonitorData(false);
+                    return true;
+                }
+            }, intervalMillis, intervalMillis);
+    }
+
+    private SlowSqlRecorder newSlowSqlRecorder(Properties masterProperties) {
+        RollingFileWriter file = null;
+        String path = masterProperties.getProperty(SLOW_SQL_LOG_FILE_STR);
+        if (StringUtils.isNotBlank(path)) {
+            try {
+                file = new RollingFileWriter(new File(path.trim()), NumberUtils.toLong(
+                    masterProperties.getProperty(SLOW_SQL_LOG_MAX_BYTES_STR), 10L << 20),
+                    NumberUtils.toInt(masterProperties.getProperty(SLOW_SQL_LOG_MAX_FILES_STR), 5));
+            } catch (IOException e) {
+                LOGGER.warn("\n-------------动态数据源【" + beanName + "】慢SQL文件" + path
+                            + "无法打开,只记录日志-------------", e);
+            }
+        }
+        return new SlowSqlRecorder(beanName, NumberUtils.toInt(
+            masterProperties.getProperty(SLOW_SQL_RING_SIZE_STR), 1024), file);
+    }
+
+    /**
+     * @return recorder of the statements slower than slowSqlThreshold, null while
+     *         monitorSupport is off
+     */
+    public SlowSqlRecorder getSlowSqlRecorder() {
+        return slowSqlRecorder;
+    }
+
+    private void stopMonitorFlush() {
+        HealthCheckScheduler.Handle flush = monitorFlush;
+        if (flush != null) {
+            monitorFlush = null;
+            flush.cancel();
+        }
+    }
+
+    private void stopFailoverCheck() {
+        HealthCheckScheduler.Handle check = failoverCheck;
+        if (check != null) {
+            failoverCheck = null;
+            check.cancel();
         }
     }
 
     public void close() {
-        for (AbstractDataSource ads : adsList) {
+        ObjectName name = objectName;
+        if (name != null) {
+            objectName = null;
+            MBeanRegistrar.unregister(name);
+        }
+        MetricsRegistry.unregister(metricsSource);
+        PropertiesFileWatcher watcher = configWatcher;
+        if (watcher != null) {
+            configWatcher = null;
+            watcher.close();
+        }
+        synchronized (readyLock) {
+            closed = true;
+        }
+        stopReadyCheck();
+        stopFailoverCheck();
+        stopMonitorFlush();
+        flushMonitorData(false);
+        SlowSqlRecorder recorder = slowSqlRecorder;
+        if (recorder != null) {
+            slowSqlRecorder = null;
+            recorder.close();
+        }
+        for (AbstractDataSource ads : activeAds.get().nodes) {
             ads.close();
         }
     }
 
     protected int flushMonitorData(boolean isTest) {
         int result = 0;
-        for (AbstractDataSource ads : adsList) {
+        for (AbstractDataSource ads : activeAds.get().nodes) {
             result += ads.flushMonitorData(isTest);
         }
         return result;
@@ -563,12 +1358,237 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
         return flushMonitorData(false);
     }
 
+    /**
+     * @return per node counters and statement statistics of the interval ended by the last
+     *         flushMonitorData(), nodes not flushed yet are left out
+     */
+    public List<MonitorSnapshot> getMonitorSnapshots() {
+        List<MonitorSnapshot> result = new ArrayList<MonitorSnapshot>();
+        for (AbstractDataSource ads : activeAds.get().nodes) {
+            MonitorSnapshot snapshot = ads.getMonitor().getLastSnapshot();
+            if (snapshot != null) {
+                result.add(snapshot);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getActiveNodeIndex() {
+        return activeAds.get().idx;
+    }
+
+    @Override
+    public String getActiveNodeUrl() {
+        Properties dbProperties = activeAds.get().dbProperties;
+        return dbProperties != null ? dbProperties.getProperty("url") : null;
+    }
+
+    @Override
+    public List<NodeStatus> getNodes() {
+        ActiveAds current = activeAds.get();
+        List<NodeStatus> result = new ArrayList<NodeStatus>(current.nodes.size());
+        for (int i = 0; i < current.nodes.size(); i++) {
+            AbstractDataSource ads = current.nodes.get(i);
+            CircuitBreaker breaker = ads.getCircuitBreaker();
+            RetryPolicy retry = ads.getRetryPolicy();
+            result.add(new NodeStatus(i, ads.getDsName(), current.url(i), i == current.idx,
+                breaker != null ? breaker.getState().name() : null,
+                breaker != null ? breaker.getWindowFailures() : 0L,
+                breaker != null ? breaker.getWindowCalls() : 0L, ads.getActiveCount(),
+                ads.getIdleCount(), ads.getPoolSize(), NumberUtils.toInt(current.nodeProperties
+                    .get(i).getProperty("maxActive"), 0), retry != null ? retry.getRetryCounts()
+                    : null, retry != null ? retry.getExhaustedCount() : 0L));
+        }
+        return result;
+    }
+
+    @Override
+    public int forceFailover() {
+        ActiveAds current = activeAds.get();
+        for (int i = 0; i < current.nodes.size(); i++) {
+            if (i == current.idx) {
+                continue;
+            }
+            boolean switched;
+            try {
+                switched = switchTo(current, i);
+            } catch (RuntimeException e) {
+                LOGGER.error("\n-------------Forced failover to DB 【" + current.url(i) + "】 fail",
+                    e);
+                continue;
+            }
+            if (!switched) {
+                throw new RuntimeException("Active node of " + beanName
+                                           + " changed concurrently, try again");
+            }
+            return i;
+        }
+        throw new RuntimeException("No other node of " + beanName + " accepts connections");
+    }
+
+    @Override
+    public void forceFailback() {
+        switchTo(0);
+    }
+
+    @Override
+    public void switchTo(int index) {
+        ActiveAds current = activeAds.get();
+        if (index < 0 || index >= current.nodes.size()) {
+            throw new RuntimeException("No node " + index + " in " + beanName);
+        }
+        if (current.idx == index) {
+            return;
+        }
+        if (!switchTo(current, index)) {
+            throw new RuntimeException("Active node of " + beanName
+                                       + " changed concurrently, try again");
+        }
+    }
+
+    /**
+     * 不持有对象锁:预热可能耗时较长,期间不阻塞重新加载和调整连接数;切换本身由ActiveAds的CAS保证,
+     * 预热期间当前节点或节点列表有变化则放弃
+     *
+     * @return false if the active node or the node list changed meanwhile
+     */
+    private boolean switchTo(ActiveAds current, int index) {
+        Object jfrEvent = JfrEvents.beginSwitch();
+        try {
+            prepareForSwitch(index, current);
+        } catch (SQLException e) {
+            JfrEvents.endSwitch(jfrEvent, beanName, "forced", current.url(current.idx),
+                current.url(index), false);
+            throw new RuntimeException("DB " + current.url(index) + " doesn't accept connections",
+                e);
+        }
+        boolean switched = switchActiveAds(current, index);
+        JfrEvents.endSwitch(jfrEvent, beanName, "forced", current.url(current.idx),
+            current.url(index), switched);
+        if (switched) {
+            forcedSwitches.increment();
+            LOGGER.warn("\n-------------Forced switch to DB 【" + current.url(index) + "】");
+            current.ads.flushMonitorData(false);
+        }
+        return switched;
+    }
+
+    @Override
+    public synchronized void resizePool(int index, int maxActive, int maxIdle, int minIdle) {
+        ActiveAds current = activeAds.get();
+        if (index < 0 || index >= current.nodes.size()) {
+            throw new RuntimeException("No node " + index + " in " + beanName);
+        }
+        if (maxActive <= 0 || maxIdle > maxActive || minIdle < 0 || minIdle > maxIdle) {
+            throw new RuntimeException("Expecting 0 <= minIdle <= maxIdle <= maxActive, 0 < maxActive");
+        }
+        Properties dbProperties = current.nodeProperties.get(index);
+        Properties properties = new Properties();
+        properties.putAll(dbProperties);
+        properties.setProperty("maxActive", String.valueOf(maxActive));
+        properties.setProperty("maxIdle", String.valueOf(maxIdle));
+        properties.setProperty("minIdle", String.valueOf(minIdle));
+        if (!current.nodes.get(index).resize(properties)) {
+            throw new RuntimeException("Pool of " + dbProperties.getProperty("url")
+                                       + " can't grow past the maxActive it was created with, change "
+                                       + dataId + " to rebuild it");
+        }
+        // 只改生效配置,配置文件中该节点变更时仍以文件为准;节点列表只在持有本锁时替换,
+        // 这里只需与切换竞争
+        while (true) {
+            current = activeAds.get();
+            List<Properties> nodeProperties = new ArrayList<Properties>(current.nodeProperties);
+            nodeProperties.set(index, properties);
+            if (activeAds.compareAndSet(current, current.next(current.nodes, nodeProperties,
+                current.rawProperties, current.idx))) {
+                break;
+            }
+        }
+        LOGGER.warn("\n-------------Datasource 【" + dbProperties.getProperty("url")
+                    + "】 resized to maxActive=" + maxActive + ", maxIdle=" + maxIdle
+                    + ", minIdle=" + minIdle);
+    }
+
+    private void collectMetrics(MetricsSink sink) {
+        for (AbstractDataSource ads : activeAds.get().nodes) {
+            String[] labels = { beanName, ads.getDsName() };
+            MonitorSnapshot total = ads.getMonitor().total(ads.getDsName());
+            long[] counts = total.getLatencyCounts();
+            double[] bounds = new double[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                bounds[i] = i == counts.length - 1 ? Double.POSITIVE_INFINITY
+                    : LatencyHistogram.upperBoundMicros(i) / 1e6;
+            }
+            sink.histogram("dds_connection_acquire_seconds",
+                "Time to obtain a connection from the node, retries included", NODE_LABELS,
+                labels, bounds, counts, total.getLatencySumMicros() / 1e6);
+            sink.counter("dds_connection_borrows_total", "Connections obtained from the node",
+                NODE_LABELS, labels, total.getBorrows());
+            sink.counter("dds_connection_failures_total",
+                "Failed attempts to obtain a connection from the node", NODE_LABELS, labels,
+                total.getFailures());
+            RetryPolicy retry = ads.getRetryPolicy();
+            if (retry != null) {
+                long[] retries = retry.getRetryCounts();
+                for (int i = 0; i < retries.length; i++) {
+                    String attempt = i == retries.length - 1 ? (i + 1) + "+" : String
+                        .valueOf(i + 1);
+                    sink.counter("dds_connection_retries_total",
+                        "Retries after a failed attempt to obtain a connection, by retry number",
+                        ATTEMPT_LABELS, new String[] { beanName, ads.getDsName(), attempt },
+                        retries[i]);
+                }
+                sink.counter("dds_connection_retries_exhausted_total",
+                    "Borrows that ran out of retry budget", NODE_LABELS, labels,
+                    retry.getExhaustedCount());
+            }
+            sink.counter("dds_connection_timeouts_total",
+                "Borrows that timed out waiting for the pool", NODE_LABELS, labels,
+                total.getTimeouts());
+            sink.counter("dds_breaker_trips_total", "Times the circuit breaker of the node opened",
+                NODE_LABELS, labels, total.getBreakerTrips());
+        }
+        for (NodeStatus node : getNodes()) {
+            String[] labels = { beanName, node.getName() };
+            sink.gauge("dds_node_active", "1 for the node borrowers are routed to", NODE_LABELS,
+                labels, node.isActive() ? 1 : 0);
+            sink.gauge("dds_breaker_state", "Circuit breaker state, 0 closed, 1 open, 2 half open",
+                NODE_LABELS, labels, node.getBreakerState() == null ? 0
+                    : CircuitBreaker.State.valueOf(node.getBreakerState()).ordinal());
+            sink.gauge("dds_pool_active", "Connections borrowed from the pool", NODE_LABELS,
+                labels, node.getPoolActive());
+            sink.gauge("dds_pool_idle", "Idle connections in the pool", NODE_LABELS, labels,
+                node.getPoolIdle());
+            sink.gauge("dds_pool_size", "Physical connections held by the pool", NODE_LABELS,
+                labels, node.getPoolSize());
+            sink.gauge("dds_pool_max_active", "Configured maxActive of the pool", NODE_LABELS,
+                labels, node.getMaxActive());
+        }
+        String help = "Switches of the active node: failover, failback or forced over JMX";
+        sink.counter("dds_switches_total", help, KIND_LABELS, new String[] { beanName,
+                "failover" }, failovers.sum());
+        sink.counter("dds_switches_total", help, KIND_LABELS, new String[] { beanName,
+                "failback" }, failbacks.sum());
+        sink.counter("dds_switches_total", help, KIND_LABELS, new String[] { beanName,
+                "forced" }, forcedSwitches.sum());
+        sink.gauge("dds_active_node_index", "Index of the active node, 0 is the master",
+            DS_LABELS, new String[] { beanName }, getActiveNodeIndex());
+    }
+
+    /**
+     * Lightweight health check of the active node, see {@link AbstractDataSource#probe(int)}.
+     */
+    public boolean probe(int timeoutSeconds) {
+        return activeAds.get().ads.probe(timeoutSeconds);
+    }
+
     protected AbstractDataSource getAds() {
-        return currentAds;
+        return activeAds.get().ads;
     }
 
     protected Properties getDsProperties() {
-        return currentDbProperties;
+        return activeAds.get().dbProperties;
     }
 
     public String getTransactionIsolation() {
@@ -579,6 +1599,89 @@ public class DynamicDataSource implements DataSource, InitializingBean, BeanFact
         this.transactionIsolation = transactionIsolation;
     }
 
+    public boolean isLazyConnection() {
+        return lazyConnection;
+    }
+
+    /**
+     * When true getConnection() returns a proxy that borrows from the pool on first real use,
+     * so callers that never run a statement cost neither a pooled connection nor a
+     * testOnBorrow round trip.
+     */
+    public void setLazyConnection(boolean lazyConnection) {
+        this.lazyConnection = lazyConnection;
+    }
+
+    public boolean isAsyncStartup() {
+        return asyncStartup;
+    }
+
+    /**
+     * When true the node pools are created in parallel and the startup connectivity check
+     * runs in the background: startup waits at most readyTimeoutMillis for a reachable node,
+     * and fails over right away if only a slave is reachable. See {@link #getReadyFuture()}.
+     */
+    public void setAsyncStartup(boolean asyncStartup) {
+        this.asyncStartup = asyncStartup;
+    }
+
+    public long getReadyTimeoutMillis() {
+        return readyTimeoutMillis;
+    }
+
+    /**
+     * How long an async startup waits for a reachable node, default 3000, 0 to not wait.
+     */
+    public void setReadyTimeoutMillis(long readyTimeoutMillis) {
+        this.readyTimeoutMillis = readyTimeoutMillis;
+    }
+
+    /**
+     * Completes with this data source once the startup check found a reachable node, or
+     * exceptionally if no node could be reached. In the latter case the nodes keep being
+     * probed and, once one answers, this returns a new, completed future.
+     */
+    public CompletableFuture<DataSource> getReadyFuture() {
+        return readyFuture.get();
+    }
+
+    public boolean isWatchConfig() {
+        return watchConfig;
+    }
+
+    /**
+     * When true the <code>beanName.properties</code> file is watched after startup and
+     * changes are applied to the running data source, see setDataSourceProperties() for what
+     * is kept, resized or rebuilt.
+     */
+    public void setWatchConfig(boolean watchConfig) {
+        this.watchConfig = watchConfig;
+    }
+
+    public long getWatchDebounceMillis() {
+        return watchDebounceMillis;
+    }
+
+    /**
+     * How long the file must stay untouched before a change is applied, default 1000.
+     */
+    public void setWatchDebounceMillis(long watchDebounceMillis) {
+        this.watchDebounceMillis = watchDebounceMillis;
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * When true (default) an MBean exposing the node, breaker and pool state plus failover
+     * and resize operations is registered as
+     * <code>com.isumi:type=DynamicDataSource,name=beanName</code>.
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
     @Override
     public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
         return null;
@@ -1,31 +1,154 @@
 package com.isumi;
 
 
+import com.isumi.jfr.JfrEvents;
+import com.isumi.jmx.DynamicRoutingDataSourceMXBean;
+import com.isumi.jmx.MBeanRegistrar;
+import com.isumi.metrics.KeyedCounter;
+import com.isumi.metrics.MetricsRegistry;
+import com.isumi.metrics.MetricsSink;
+import com.isumi.metrics.MetricsSource;
+import com.isumi.monitor.SqlMonitorProxy;
+import com.isumi.routing.ConnectionReleaseHandler;
+import com.isumi.routing.HedgeDelayEstimator;
+import com.isumi.routing.LookupKeySelector;
+import com.isumi.routing.ReadWriteSplittingConnectionHandler;
+import com.isumi.routing.ReplicationLagProbe;
+import com.isumi.routing.ReplicationPositionTracker;
+import com.isumi.routing.WritePositionConnectionHandler;
+import com.isumi.routing.RoundRobinLookupKeySelector;
 import com.isumi.util.DynamicDbContext;
+import com.isumi.util.HealthCheckScheduler;
+import org.springframework.beans.factory.BeanNameAware;
 
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 /**
  * author: hikin yao
  * version: 1.0
  */
-public class DynamicRoutingDataSource extends AbstractRoutingDataSource {
+public class DynamicRoutingDataSource extends AbstractRoutingDataSource implements BeanNameAware,
+                                                                        DynamicRoutingDataSourceMXBean {
 
-    private volatile List<Object> dataSourceLookupKeyList = new CopyOnWriteArrayList<Object>();
-    private AtomicInteger         sets                    = new AtomicInteger(0);
-    private ThreadLocal<Object>   currentLookupKey        = new ThreadLocal<Object>();
+    private volatile CopyOnWriteArrayList<Object> dataSourceLookupKeyList = new CopyOnWriteArrayList<Object>();
+    private ThreadLocal<Object>                   currentLookupKey        = new ThreadLocal<Object>();
+    private LookupKeySelector                     lookupKeySelector       = new RoundRobinLookupKeySelector();
+
+    private volatile HealthCheckScheduler.Handle recoverCheck;
+    private volatile HealthCheckScheduler.Handle lagCheck;
+    private long                                 recoverCheckIntervalMillis    = 5000L;
+    private long                                 recoverCheckMaxIntervalMillis = 180000L;
+    private int                                  healthCheckTimeoutSeconds     = 1;
+
+    private ReplicationLagProbe                   replicationLagProbe;
+    private long                                  maxReplicationLagMillis = 10000L;
+    private long                                  lagCheckIntervalMillis  = 5000L;
+    /**
+     * 因复制延迟被剔除的备库,由延迟检查负责恢复,连接恢复检查不处理
+     */
+    private final Set<Object>                     laggingLookupKeys       = Collections
+        .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /**
+     * 通过JMX手工剔除的备库,只能手工恢复,恢复检查和延迟检查都不处理
+     */
+    private final Set<Object>                     manuallyEjectedLookupKeys = Collections
+        .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    private String                                beanName;
+    private boolean                               jmxEnabled              = true;
+    private volatile ObjectName                   objectName;
+
+    /**
+     * 指标中主库的lookup key
+     */
+    private static final String                   MASTER_LOOKUP_KEY       = "defaultDataSource";
+    private static final String[]                 KEY_LABELS              = { "datasource", "lookup_key" };
+    private static final KeyedCounter             NO_KEYS                 = new KeyedCounter(
+                                                                              Collections.emptyList());
+    /**
+     * 按lookup key计数,key在afterPropertiesSet时确定
+     */
+    private volatile KeyedCounter                 routedCounter           = NO_KEYS;
+    private volatile KeyedCounter                 routeFailureCounter     = NO_KEYS;
+    private volatile KeyedCounter                 ejectionCounter         = NO_KEYS;
+    private volatile KeyedCounter                 revivalCounter          = NO_KEYS;
+
+    /**
+     * 指标只读取已有的计数,获取连接时只多一次计数
+     */
+    private final MetricsSource                   metricsSource           = new MetricsSource() {
+        @Override
+        public void collect(MetricsSink sink) {
+            collectMetrics(sink);
+        }
+
+        @Override
+        public String toString() {
+            return "DynamicRoutingDataSource[" + beanName + "]";
+        }
+    };
+
+    private static final long                     CAUSAL_POLL_MILLIS      = 10L;
+    private ReplicationPositionTracker            replicationPositionTracker;
+    private long                                  causalWaitMillis        = 0L;
+    private long                                  causalTtlMillis         = 5000L;
+    private boolean                               readWriteSplitting      = false;
+
+    private double                                hedgePercentile         = 0D;
+    private long                                  hedgeMinDelayMillis     = 2L;
+    private long                                  hedgeMaxDelayMillis     = 1000L;
+    private volatile HedgeDelayEstimator          hedgeDelayEstimator;
+
+    /**
+     * 异步获取中会阻塞的操作(非DynamicDataSource的getConnection、同步位置等待)在这里执行,
+     * 不占用AsyncConnectionAcquirer的计时线程
+     */
+    private final ThreadPoolExecutor              blockingExecutor        = newBlockingExecutor();
+
+    /**
+     * 对冲获取时非DynamicDataSource的主请求在这里阻塞获取,不排队:没有空闲线程时直接在调用线程
+     * 获取(不再对冲)
+     */
+    private final ThreadPoolExecutor              hedgeExecutor           = newHedgeExecutor();
+
+    /**
+     * 备库选择策略,默认轮询
+     */
+    public void setLookupKeySelector(LookupKeySelector lookupKeySelector) {
+        this.lookupKeySelector = lookupKeySelector != null ? lookupKeySelector
+            : new RoundRobinLookupKeySelector();
+    }
+
+    public LookupKeySelector getLookupKeySelector() {
+        return lookupKeySelector;
+    }
 
     @Override
     public void afterPropertiesSet() {
@@ -33,15 +156,221 @@ public class DynamicRoutingDataSource extends AbstractRoutingDataSource {
         for (Object lookupKey : super.resolvedDataSources.keySet()) {
             dataSourceLookupKeyList.add(lookupKey);
         }
-        //后台维护线程
-        ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
-        Long delayTime = 60 * 3L;//3分钟
-        scheduledExecutor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                checkDataSourceForRecover();
-            }
-        }, delayTime, delayTime, TimeUnit.SECONDS);
+        List<Object> metricKeys = new ArrayList<Object>(dataSourceLookupKeyList);
+        metricKeys.add(MASTER_LOOKUP_KEY);
+        routedCounter = new KeyedCounter(metricKeys);
+        routeFailureCounter = new KeyedCounter(metricKeys);
+        ejectionCounter = new KeyedCounter(dataSourceLookupKeyList);
+        revivalCounter = new KeyedCounter(dataSourceLookupKeyList);
+        if (hedgePercentile > 0D) {
+            hedgeDelayEstimator = new HedgeDelayEstimator(hedgePercentile, hedgeMinDelayMillis,
+                hedgeMaxDelayMillis);
+        }
+        //后台维护任务,所有数据源共用HealthCheckScheduler的线程
+        recoverCheck = HealthCheckScheduler.getInstance().register("-routing-recover-check-",
+            new HealthCheckScheduler.Check() {
+                @Override
+                public boolean run() {
+                    return checkDataSourceForRecover();
+                }
+            }, recoverCheckIntervalMillis, recoverCheckMaxIntervalMillis);
+        if (replicationLagProbe != null) {
+            lagCheck = HealthCheckScheduler.getInstance().register("-routing-lag-check-",
+                new HealthCheckScheduler.Check() {
+                    @Override
+                    public boolean run() {
+                        checkReplicationLag();
+                        return true;
+                    }
+                }, lagCheckIntervalMillis, lagCheckIntervalMillis);
+        }
+        if (jmxEnabled) {
+            objectName = MBeanRegistrar.register(this, "DynamicRoutingDataSource", getName());
+        }
+        MetricsRegistry.register(metricsSource);
+    }
+
+    /**
+     * 停止后台检查任务,最后一个数据源关闭时共用的检查线程随之退出
+     */
+    public void close() {
+        ObjectName name = objectName;
+        if (name != null) {
+            objectName = null;
+            MBeanRegistrar.unregister(name);
+        }
+        MetricsRegistry.unregister(metricsSource);
+        blockingExecutor.shutdown();
+        hedgeExecutor.shutdown();
+        HealthCheckScheduler.Handle check = recoverCheck;
+        if (check != null) {
+            recoverCheck = null;
+            check.cancel();
+        }
+        check = lagCheck;
+        if (check != null) {
+            lagCheck = null;
+            check.cancel();
+        }
+    }
+
+    /**
+     * 被剔除备库的恢复检查间隔(毫秒),默认5000;备库持续不可用时间隔逐次加倍,最大到
+     * recoverCheckMaxIntervalMillis
+     */
+    public void setRecoverCheckIntervalMillis(long recoverCheckIntervalMillis) {
+        if (recoverCheckIntervalMillis > 0) {
+            this.recoverCheckIntervalMillis = recoverCheckIntervalMillis;
+        }
+    }
+
+    public long getRecoverCheckIntervalMillis() {
+        return recoverCheckIntervalMillis;
+    }
+
+    /**
+     * 恢复检查的最大间隔(毫秒),默认180000
+     */
+    public void setRecoverCheckMaxIntervalMillis(long recoverCheckMaxIntervalMillis) {
+        this.recoverCheckMaxIntervalMillis = recoverCheckMaxIntervalMillis;
+    }
+
+    public long getRecoverCheckMaxIntervalMillis() {
+        return recoverCheckMaxIntervalMillis;
+    }
+
+    /**
+     * 恢复检查Connection.isValid的超时时间(秒),默认1
+     */
+    public void setHealthCheckTimeoutSeconds(int healthCheckTimeoutSeconds) {
+        if (healthCheckTimeoutSeconds > 0) {
+            this.healthCheckTimeoutSeconds = healthCheckTimeoutSeconds;
+        }
+    }
+
+    public int getHealthCheckTimeoutSeconds() {
+        return healthCheckTimeoutSeconds;
+    }
+
+    /**
+     * 备库复制延迟探测方式,为空则不检查延迟
+     */
+    public void setReplicationLagProbe(ReplicationLagProbe replicationLagProbe) {
+        this.replicationLagProbe = replicationLagProbe;
+    }
+
+    public ReplicationLagProbe getReplicationLagProbe() {
+        return replicationLagProbe;
+    }
+
+    /**
+     * 备库延迟超过该值(毫秒)时剔除,追上后重新加入,默认10000
+     */
+    public void setMaxReplicationLagMillis(long maxReplicationLagMillis) {
+        this.maxReplicationLagMillis = maxReplicationLagMillis;
+    }
+
+    public long getMaxReplicationLagMillis() {
+        return maxReplicationLagMillis;
+    }
+
+    /**
+     * 延迟检查间隔(毫秒),默认5000
+     */
+    public void setLagCheckIntervalMillis(long lagCheckIntervalMillis) {
+        if (lagCheckIntervalMillis > 0) {
+            this.lagCheckIntervalMillis = lagCheckIntervalMillis;
+        }
+    }
+
+    public long getLagCheckIntervalMillis() {
+        return lagCheckIntervalMillis;
+    }
+
+    /**
+     * 开启读己之写:主库连接写入后记录复制位置到DynamicDbContext,之后的备库读请求只路由到
+     * 已同步到该位置的备库,没有则走主库。为空则关闭
+     */
+    public void setReplicationPositionTracker(ReplicationPositionTracker replicationPositionTracker) {
+        this.replicationPositionTracker = replicationPositionTracker;
+    }
+
+    public ReplicationPositionTracker getReplicationPositionTracker() {
+        return replicationPositionTracker;
+    }
+
+    /**
+     * 第一个备库未同步到写入位置时最多等待的时间(毫秒),默认0不等待
+     */
+    public void setCausalWaitMillis(long causalWaitMillis) {
+        if (causalWaitMillis >= 0) {
+            this.causalWaitMillis = causalWaitMillis;
+        }
+    }
+
+    public long getCausalWaitMillis() {
+        return causalWaitMillis;
+    }
+
+    /**
+     * 写入位置的有效期(毫秒),默认5000。超过后读请求不再检查备库同步位置,
+     * 写入位置无法获取(UNKNOWN_POSITION)时走主库也只持续这么久。
+     * 请求线程仍应在请求结束时调用DynamicDbContext.reset()
+     */
+    public void setCausalTtlMillis(long causalTtlMillis) {
+        if (causalTtlMillis >= 0) {
+            this.causalTtlMillis = causalTtlMillis;
+        }
+    }
+
+    public long getCausalTtlMillis() {
+        return causalTtlMillis;
+    }
+
+    /**
+     * 开启按语句自动读写分离:事务外的SELECT走备库,写语句、SELECT ... FOR UPDATE及事务内语句走主库,
+     * 无需手工调用DynamicDbContext切换。switchToMasterDB()仍然强制走主库
+     */
+    public void setReadWriteSplitting(boolean readWriteSplitting) {
+        this.readWriteSplitting = readWriteSplitting;
+    }
+
+    public boolean isReadWriteSplitting() {
+        return readWriteSplitting;
+    }
+
+    /**
+     * 开启备库对冲获取:备库连接在最近获取耗时的该百分位(如95)内未拿到时,再向另一个备库发起获取,
+     * 先到者使用,后到者归还连接池。默认0关闭
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * 对冲延迟下限(毫秒),默认2
+     */
+    public void setHedgeMinDelayMillis(long hedgeMinDelayMillis) {
+        this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+    }
+
+    public long getHedgeMinDelayMillis() {
+        return hedgeMinDelayMillis;
+    }
+
+    /**
+     * 对冲延迟上限(毫秒),默认1000
+     */
+    public void setHedgeMaxDelayMillis(long hedgeMaxDelayMillis) {
+        this.hedgeMaxDelayMillis = hedgeMaxDelayMillis;
+    }
+
+    public long getHedgeMaxDelayMillis() {
+        return hedgeMaxDelayMillis;
     }
 
     @Override
@@ -55,74 +384,650 @@ public class DynamicRoutingDataSource extends AbstractRoutingDataSource {
         if (username != null && password != null) {
             needAuth = true;
         }
-        Integer retryTimes = new Integer(dataSourceLookupKeyList.size());
-        Connection conn = null;
         //当前线程数据源是主库类型或者当前强制主库开关开启，则直接切换到主库
         if (DynamicDbContext.isMasterDB() == true || isForceMasterDB() == true) {
-            conn = null;
-        } else {
-            conn = determineTargetConnection(needAuth, username, password, retryTimes);
+            return getMasterConnection(needAuth, username, password,
+                DynamicDbContext.isMasterDB());
+        }
+        //按语句自动读写分离,第一条语句执行时才决定连接主库还是备库
+        if (readWriteSplitting == true) {
+            return ReadWriteSplittingConnectionHandler
+                .wrap(new SplitTargetSource(needAuth, username, password));
         }
+        Connection conn = getSlaveConnection(needAuth, username, password);
         if (conn == null) {
+            conn = getMasterConnection(needAuth, username, password, false);
+        }
+        return conn;
+    }
+
+    /**
+     * 获取备库连接,没有可用备库时返回null
+     */
+    private Connection getSlaveConnection(boolean needAuth, String username, String password) {
+        ReplicationPositionTracker tracker = replicationPositionTracker;
+        String position = tracker != null ? DynamicDbContext
+            .getReplicationPosition(causalTtlMillis) : null;
+        if (position != null) {
+            return determineCausalConnection(needAuth, username, password, position, tracker);
+        }
+        HedgeDelayEstimator estimator = hedgeDelayEstimator;
+        if (estimator != null && dataSourceLookupKeyList.size() > 1) {
+            long delayNanos = estimator.getDelayNanos();
+            if (delayNanos >= 0) {
+                return determineHedgedConnection(needAuth, username, password, delayNanos);
+            }
+        }
+        return determineTargetConnection(needAuth, username, password,
+            dataSourceLookupKeyList.size());
+    }
+
+    /**
+     * 对冲获取备库连接:第一个备库在delayNanos内未返回连接时,再向另一个备库获取,先到者使用,
+     * 后到者归还连接池。都失败后剩余的备库按原方式依次尝试
+     */
+    private Connection determineHedgedConnection(boolean needAuth, String username,
+                                                 String password, long delayNanos) {
+        Object primaryKey = selectSlaveLookupKey();
+        if (primaryKey == null) {
+            return null;
+        }
+        DataSource primaryDataSource = (DataSource) resolvedDataSources.get(primaryKey);
+        CompletableFuture<Connection> primary = acquireHedgePrimary(primaryKey,
+            primaryDataSource, needAuth, username, password);
+        CompletableFuture<Connection> hedge = null;
+        try {
             try {
-                if (needAuth == true) {
-                    conn = resolvedDefaultDataSource.getConnection(username, password);
-                } else {
-                    conn = resolvedDefaultDataSource.getConnection();
+                return primary.get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                List<Object> others = new ArrayList<Object>(dataSourceLookupKeyList);
+                others.remove(primaryKey);
+                Object hedgeKey = others.isEmpty() ? null : lookupKeySelector.select(others);
+                DataSource hedgeDataSource = hedgeKey == null ? null
+                    : (DataSource) resolvedDataSources.get(hedgeKey);
+                if (hedgeDataSource == null) {
+                    return primary.get();
                 }
                 if (logger.isDebugEnabled()) {
-                    logger.debug("第 [defaultDataSource] 数据源连接成功!");
+                    logger.debug("第  [" + primaryKey + "] 数据源获取连接超过" + delayNanos / 1000L
+                                 + "us,对冲到第  [" + hedgeKey + "] 数据源!");
+                }
+                hedge = acquireSlaveAsync(hedgeKey, hedgeDataSource, needAuth, username, password);
+            }
+            return awaitFirstConnection(primary, hedge);
+        } catch (ExecutionException e) {
+            //失败的备库已被剔除
+            return determineTargetConnection(needAuth, username, password,
+                dataSourceLookupKeyList.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseWhenDone(primary);
+            if (hedge != null) {
+                releaseWhenDone(hedge);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 获取对冲主请求的备库连接。DynamicDataSource的异步获取只在该备库自己的连接线程上取池,
+     * 等待时不占线程;其他数据源在hedgeExecutor上阻塞获取,线程都忙时在调用线程获取,返回时已完成
+     */
+    private CompletableFuture<Connection> acquireHedgePrimary(final Object lookupKey,
+                                                              final DataSource targetDataSource,
+                                                              final boolean needAuth,
+                                                              final String username,
+                                                              final String password) {
+        if (targetDataSource instanceof DynamicDataSource) {
+            return acquireSlaveAsync(lookupKey, targetDataSource, needAuth, username, password);
+        }
+        final LookupKeySelector selector = lookupKeySelector;
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        hedgeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startNanos = System.nanoTime();
+                Connection conn;
+                try {
+                    conn = needAuth ? targetDataSource.getConnection(username, password)
+                        : targetDataSource.getConnection();
+                } catch (Throwable t) {
+                    onSlaveAcquireFailure(lookupKey, selector, t);
+                    future.completeExceptionally(t);
+                    return;
+                }
+                conn = onSlaveAcquired(lookupKey, selector, conn, System.nanoTime() - startNanos);
+                if (!future.complete(conn)) {
+                    closeQuietly(conn);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 返回先拿到的连接,另一个拿到后归还连接池;两个都失败时抛出后失败的异常
+     */
+    private Connection awaitFirstConnection(CompletableFuture<Connection> a,
+                                            CompletableFuture<Connection> b)
+                                                                            throws InterruptedException,
+                                                                            ExecutionException {
+        try {
+            CompletableFuture.anyOf(a, b).get();
+        } catch (ExecutionException e) {
+            //其中一个失败,等另一个
+        }
+        CompletableFuture<Connection> done = a.isDone() ? a : b;
+        CompletableFuture<Connection> other = done == a ? b : a;
+        if (done.isCompletedExceptionally()) {
+            return other.get();
+        }
+        releaseWhenDone(other);
+        return done.getNow(null);
+    }
+
+    private void releaseWhenDone(CompletableFuture<Connection> future) {
+        future.whenComplete(new BiConsumer<Connection, Throwable>() {
+            @Override
+            public void accept(Connection conn, Throwable t) {
+                if (conn != null) {
+                    closeQuietly(conn);
                 }
-            } catch (Exception e) {
-                logger.error("第 [defaultDataSource] 数据源连接错误!", e);
-                sendDBErrorMsg("数据库异常", "---第 [defaultDataSource] 数据源连接错误!", e);
-                throw new SQLException(e.getMessage());
             }
+        });
+    }
+
+    /**
+     * 获取主库连接
+     *
+     * @param trackWritePosition 是否记录写入后的复制位置(读己之写)
+     */
+    private Connection getMasterConnection(boolean needAuth, String username, String password,
+                                           boolean trackWritePosition) throws SQLException {
+        Connection conn;
+        try {
+            if (needAuth == true) {
+                conn = resolvedDefaultDataSource.getConnection(username, password);
+            } else {
+                conn = resolvedDefaultDataSource.getConnection();
+            }
+            routedCounter.increment(MASTER_LOOKUP_KEY);
+            ReplicationPositionTracker tracker = replicationPositionTracker;
+            if (tracker != null && trackWritePosition == true) {
+                conn = WritePositionConnectionHandler.wrap(conn, tracker);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("第 [defaultDataSource] 数据源连接成功!");
+            }
+        } catch (Exception e) {
+            routeFailureCounter.increment(MASTER_LOOKUP_KEY);
+            logger.error("第 [defaultDataSource] 数据源连接错误!", e);
+            sendDBErrorMsg("数据库异常", "---第 [defaultDataSource] 数据源连接错误!", e);
+            throw new SQLException(e.getMessage());
         }
         return conn;
     }
 
+    /**
+     * 读写分离连接的真实连接来源
+     */
+    private class SplitTargetSource implements ReadWriteSplittingConnectionHandler.TargetSource {
+
+        private final boolean needAuth;
+        private final String  username;
+        private final String  password;
+
+        SplitTargetSource(boolean needAuth, String username, String password) {
+            this.needAuth = needAuth;
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public Connection getReadConnection() {
+            return getSlaveConnection(needAuth, username, password);
+        }
+
+        @Override
+        public Connection getWriteConnection() throws SQLException {
+            return getMasterConnection(needAuth, username, password, true);
+        }
+    }
+
     private Connection determineTargetConnection(boolean needAuth, String username, String password,
                                                  int h) {
         Connection conn = null;
         if (h > 0) {
+            LookupKeySelector selector = lookupKeySelector;
             try {
                 DataSource targetDataSource = determineTargetDataSource();
+                long startNanos = System.nanoTime();
                 if (needAuth == true) {
                     conn = targetDataSource.getConnection(username, password);
                 } else {
                     conn = targetDataSource.getConnection();
                 }
+                long acquireNanos = System.nanoTime() - startNanos;
+                selector.onAcquire(currentLookupKey.get(), acquireNanos);
+                routedCounter.increment(currentLookupKey.get());
+                HedgeDelayEstimator estimator = hedgeDelayEstimator;
+                if (estimator != null) {
+                    estimator.record(acquireNanos);
+                }
+                conn = trackSlaveConnection(conn, currentLookupKey.get(), selector);
                 if (logger.isDebugEnabled()) {
                     logger.debug("\n第  [" + currentLookupKey.get() + "] 数据源连接成功!");
                 }
             } catch (Exception e) {
-                //剔除当前无效数据源
-                if (dataSourceLookupKeyList.remove(currentLookupKey.get())) {
-                    logger.error("---[!!!重要!!!]第 [" + currentLookupKey.get() + "] 数据源连接失败,已被剔除!",
-                        e);
-                    sendDBErrorMsg("数据库异常", "---第 [" + currentLookupKey.get() + "] 数据源连接失败,已被剔除!",
-                        e);
-                } else {
-                    logger.error("第  [" + currentLookupKey.get() + "] 数据源连接失败!", e);
-                }
+                selector.onAcquireFailure(currentLookupKey.get());
+                routeFailureCounter.increment(currentLookupKey.get());
+                ejectLookupKey(currentLookupKey.get(), e);
                 conn = determineTargetConnection(needAuth, username, password, --h);
             }
         }
         return conn;
     }
 
+    /**
+     * 剔除当前无效数据源
+     */
+    private void ejectLookupKey(Object lookupKey, Throwable e) {
+        if (dataSourceLookupKeyList.remove(lookupKey)) {
+            ejectionCounter.increment(lookupKey);
+            JfrEvents.replicaEjected(getName(), lookupKey, "failure");
+            logger.error("---[!!!重要!!!]第 [" + lookupKey + "] 数据源连接失败,已被剔除!", e);
+            sendDBErrorMsg("数据库异常", "---第 [" + lookupKey + "] 数据源连接失败,已被剔除!", e);
+        } else {
+            logger.error("第  [" + lookupKey + "] 数据源连接失败!", e);
+        }
+    }
+
+    /**
+     * 异步获取连接,不阻塞调用线程,路由规则与getConnection()相同
+     */
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return this.getConnectionAsync(null, null);
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync(final String username,
+                                                            final String password) {
+        final boolean needAuth = username != null && password != null;
+        //路由所需的线程上下文必须在调用线程读取
+        if (DynamicDbContext.isMasterDB() == true || isForceMasterDB() == true) {
+            return getMasterConnectionAsync(needAuth, username, password,
+                DynamicDbContext.isMasterDB());
+        }
+        if (readWriteSplitting == true) {
+            //读写分离连接在第一条语句执行时才取真实连接
+            return CompletableFuture.completedFuture(ReadWriteSplittingConnectionHandler
+                .wrap(new SplitTargetSource(needAuth, username, password)));
+        }
+        final ReplicationPositionTracker tracker = replicationPositionTracker;
+        final String position = tracker != null ? DynamicDbContext
+            .getReplicationPosition(causalTtlMillis) : null;
+        if (position != null) {
+            //同步位置检查需要在备库上执行查询,放到后台线程
+            final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+            execute(future, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Connection conn = determineCausalConnection(needAuth, username, password,
+                            position, tracker);
+                        if (conn == null) {
+                            conn = getMasterConnection(needAuth, username, password, false);
+                        }
+                        if (!future.complete(conn)) {
+                            closeQuietly(conn);
+                        }
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+            return future;
+        }
+        return getSlaveConnectionAsync(needAuth, username, password,
+            dataSourceLookupKeyList.size());
+    }
+
+    /**
+     * 异步获取备库连接,失败的备库被剔除后换下一个,都失败则走主库
+     */
+    private CompletableFuture<Connection> getSlaveConnectionAsync(final boolean needAuth,
+                                                                  final String username,
+                                                                  final String password,
+                                                                  final int h) {
+        if (h <= 0) {
+            return getMasterConnectionAsync(needAuth, username, password, false);
+        }
+        final Object lookupKey = selectSlaveLookupKey();
+        if (lookupKey == null) {
+            return getMasterConnectionAsync(needAuth, username, password, false);
+        }
+        final DataSource targetDataSource = (DataSource) resolvedDataSources.get(lookupKey);
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        acquireSlaveAsync(lookupKey, targetDataSource, needAuth, username, password)
+            .whenComplete(new BiConsumer<Connection, Throwable>() {
+                @Override
+                public void accept(Connection conn, Throwable t) {
+                    if (t != null) {
+                        relay(getSlaveConnectionAsync(needAuth, username, password, h - 1),
+                            future);
+                    } else if (!future.complete(conn)) {
+                        closeQuietly(conn);
+                    }
+                }
+            });
+        return future;
+    }
+
+    /**
+     * 异步获取指定备库的连接,成功时记录获取耗时,失败时剔除该备库
+     */
+    private CompletableFuture<Connection> acquireSlaveAsync(final Object lookupKey,
+                                                            DataSource targetDataSource,
+                                                            boolean needAuth, String username,
+                                                            String password) {
+        final LookupKeySelector selector = lookupKeySelector;
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        connectAsync(targetDataSource, needAuth, username, password)
+            .whenComplete(new BiConsumer<Connection, Throwable>() {
+                @Override
+                public void accept(Connection conn, Throwable t) {
+                    if (t != null) {
+                        Throwable e = unwrapCompletion(t);
+                        onSlaveAcquireFailure(lookupKey, selector, e);
+                        future.completeExceptionally(e);
+                        return;
+                    }
+                    long acquireNanos = System.nanoTime() - startNanos;
+                    conn = onSlaveAcquired(lookupKey, selector, conn, acquireNanos);
+                    if (!future.complete(conn)) {
+                        closeQuietly(conn);
+                    }
+                }
+            });
+        return future;
+    }
+
+    /**
+     * 备库连接获取成功:记录获取耗时,按选择策略的需要包装连接
+     */
+    private Connection onSlaveAcquired(Object lookupKey, LookupKeySelector selector,
+                                       Connection conn, long acquireNanos) {
+        selector.onAcquire(lookupKey, acquireNanos);
+        routedCounter.increment(lookupKey);
+        HedgeDelayEstimator estimator = hedgeDelayEstimator;
+        if (estimator != null) {
+            estimator.record(acquireNanos);
+        }
+        conn = trackSlaveConnection(conn, lookupKey, selector);
+        if (logger.isDebugEnabled()) {
+            logger.debug("\n第  [" + lookupKey + "] 数据源连接成功!");
+        }
+        return conn;
+    }
+
+    /**
+     * 按选择策略的需要包装备库连接:语句执行耗时和/或连接归还时通知选择策略
+     */
+    private static Connection trackSlaveConnection(Connection conn, final Object lookupKey,
+                                                   final LookupKeySelector selector) {
+        if (selector.isStatementTracked()) {
+            conn = SqlMonitorProxy.wrap(conn, new SqlMonitorProxy.Listener() {
+                @Override
+                public void onExecute(String sql, long startMillis, long elapsedNanos,
+                                      long rows, boolean failed) {
+                    selector.onStatement(lookupKey, elapsedNanos);
+                }
+            });
+        }
+        if (selector.isReleaseTracked()) {
+            conn = ConnectionReleaseHandler.wrap(conn, lookupKey, selector);
+        }
+        return conn;
+    }
+
+    /**
+     * 备库连接获取失败,剔除该备库
+     */
+    private void onSlaveAcquireFailure(Object lookupKey, LookupKeySelector selector, Throwable e) {
+        selector.onAcquireFailure(lookupKey);
+        routeFailureCounter.increment(lookupKey);
+        ejectLookupKey(lookupKey, e);
+    }
+
+    private CompletableFuture<Connection> getMasterConnectionAsync(boolean needAuth,
+                                                                   String username,
+                                                                   String password,
+                                                                   final boolean trackWritePosition) {
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        connectAsync(resolvedDefaultDataSource, needAuth, username, password)
+            .whenComplete(new BiConsumer<Connection, Throwable>() {
+                @Override
+                public void accept(Connection conn, Throwable t) {
+                    if (t != null) {
+                        Throwable e = unwrapCompletion(t);
+                        routeFailureCounter.increment(MASTER_LOOKUP_KEY);
+                        logger.error("第 [defaultDataSource] 数据源连接错误!", e);
+                        sendDBErrorMsg("数据库异常", "---第 [defaultDataSource] 数据源连接错误!", e);
+                        future.completeExceptionally(new SQLException(e.getMessage()));
+                        return;
+                    }
+                    routedCounter.increment(MASTER_LOOKUP_KEY);
+                    ReplicationPositionTracker tracker = replicationPositionTracker;
+                    if (tracker != null && trackWritePosition == true) {
+                        conn = WritePositionConnectionHandler.wrap(conn, tracker);
+                    }
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("第 [defaultDataSource] 数据源连接成功!");
+                    }
+                    if (!future.complete(conn)) {
+                        closeQuietly(conn);
+                    }
+                }
+            });
+        return future;
+    }
+
+    /**
+     * DynamicDataSource本身支持异步获取,其他数据源只能在后台线程阻塞获取
+     */
+    private CompletableFuture<Connection> connectAsync(final DataSource dataSource,
+                                                       final boolean needAuth,
+                                                       final String username,
+                                                       final String password) {
+        if (dataSource instanceof DynamicDataSource) {
+            DynamicDataSource dds = (DynamicDataSource) dataSource;
+            return needAuth ? dds.getConnectionAsync(username, password)
+                : dds.getConnectionAsync();
+        }
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        execute(future, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Connection conn = needAuth ? dataSource.getConnection(username, password)
+                        : dataSource.getConnection();
+                    if (!future.complete(conn)) {
+                        closeQuietly(conn);
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 在blockingExecutor上执行,数据源已关闭时直接失败
+     */
+    private void execute(CompletableFuture<Connection> future, Runnable task) {
+        try {
+            blockingExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new SQLException("数据源已关闭!", e));
+        }
+    }
+
+    private ThreadPoolExecutor newHedgeExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Math.max(2, Runtime.getRuntime()
+            .availableProcessors()), 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-routing-hedge-" + getName() + "-"
+                                                  + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                //关闭后也在调用线程获取
+                r.run();
+            }
+        });
+        return executor;
+    }
+
+    private ThreadPoolExecutor newBlockingExecutor() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-routing-blocking-" + getName() + "-"
+                                                  + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void relay(CompletableFuture<Connection> from, final CompletableFuture<Connection> to) {
+        from.whenComplete(new BiConsumer<Connection, Throwable>() {
+            @Override
+            public void accept(Connection conn, Throwable t) {
+                if (t != null) {
+                    to.completeExceptionally(unwrapCompletion(t));
+                } else if (!to.complete(conn)) {
+                    closeQuietly(conn);
+                }
+            }
+        });
+    }
+
+    private static Throwable unwrapCompletion(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+
+    /**
+     * 获取已同步到position的备库连接:从可用备库的快照中,先试选择策略选中的备库,再依次试其余备库,
+     * 每个备库只试一次。只有第一个取到连接的备库会等待causalWaitMillis,都未同步则返回null走主库
+     */
+    private Connection determineCausalConnection(boolean needAuth, String username,
+                                                 String password, String position,
+                                                 ReplicationPositionTracker tracker) {
+        if (DynamicDbContext.UNKNOWN_POSITION.equals(position)) {
+            return null;
+        }
+        long deadline = System.currentTimeMillis() + causalWaitMillis;
+        List<Object> candidates = new ArrayList<Object>(dataSourceLookupKeyList);
+        Object selected = selectSlaveLookupKey();
+        if (selected != null && candidates.remove(selected)) {
+            candidates.add(0, selected);
+        }
+        boolean mayWait = true;
+        for (Object lookupKey : candidates) {
+            Connection conn = borrowSlave(lookupKey, needAuth, username, password);
+            if (conn == null) {
+                continue;
+            }
+            try {
+                while (true) {
+                    if (tracker.hasReached(conn, position)) {
+                        return conn;
+                    }
+                    long remain = deadline - System.currentTimeMillis();
+                    if (!mayWait || remain <= 0) {
+                        break;
+                    }
+                    Thread.sleep(Math.min(CAUSAL_POLL_MILLIS, remain));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closeQuietly(conn);
+                return null;
+            } catch (SQLException e) {
+                logger.warn("第  [" + lookupKey + "] 数据源同步位置检查失败!", e);
+            }
+            mayWait = false;
+            closeQuietly(conn);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("没有备库同步到 [" + position + "],走主库!");
+        }
+        return null;
+    }
+
+    /**
+     * 获取指定备库的连接,失败时剔除该备库并返回null
+     */
+    private Connection borrowSlave(Object lookupKey, boolean needAuth, String username,
+                                   String password) {
+        DataSource targetDataSource = (DataSource) resolvedDataSources.get(lookupKey);
+        if (targetDataSource == null) {
+            return null;
+        }
+        LookupKeySelector selector = lookupKeySelector;
+        currentLookupKey.set(lookupKey);
+        long startNanos = System.nanoTime();
+        try {
+            Connection conn = needAuth ? targetDataSource.getConnection(username, password)
+                : targetDataSource.getConnection();
+            return onSlaveAcquired(lookupKey, selector, conn, System.nanoTime() - startNanos);
+        } catch (Exception e) {
+            onSlaveAcquireFailure(lookupKey, selector, e);
+            return null;
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            logger.warn("关闭连接失败!", e);
+        }
+    }
+
+    /**
+     * 选择一个可用备库,没有时返回null。直接使用determineCurrentLookupKey()的结果,
+     * 备库全部剔除时currentLookupKey里可能还是上次选中的备库
+     */
+    private Object selectSlaveLookupKey() {
+        Object lookupKey = determineCurrentLookupKey();
+        if (lookupKey == null || resolvedDataSources.get(lookupKey) == null) {
+            return null;
+        }
+        return lookupKey;
+    }
+
     @Override
     protected Object determineCurrentLookupKey() {
-        int i = sets.incrementAndGet();
-        if (i < 0) {
-            sets = new AtomicInteger(0);
-            i = 0;
-        }
         Object lookupKey = null;
         if (dataSourceLookupKeyList != null && dataSourceLookupKeyList.size() > 0) {
-            int index = i % dataSourceLookupKeyList.size();
-            lookupKey = dataSourceLookupKeyList.get(index);
+            lookupKey = lookupKeySelector.select(dataSourceLookupKeyList);
             currentLookupKey.set(lookupKey);
         }
         return lookupKey;
@@ -154,8 +1059,11 @@ public class DynamicRoutingDataSource extends AbstractRoutingDataSource {
 
     /**
      * 检查之前踢出的数据源是否已经复活,如果已经复活重新放进环中
+     *
+     * @return 没有仍未复活的数据源时返回true
      */
-    private void checkDataSourceForRecover() {
+    private boolean checkDataSourceForRecover() {
+        boolean allAlive = true;
         try {
             //当前有备库数据源并且非强制主库(即允许备库查询)
             if (resolvedDataSources != null && resolvedDataSources.size() > 0
@@ -165,23 +1073,26 @@ public class DynamicRoutingDataSource extends AbstractRoutingDataSource {
                     Object lookupKey = entry.getKey();
                     DataSource dataSource = (DataSource) entry.getValue();
                     //如果当前数据源已经踢出了,检查一下当前是否已经存活
-                    if (dataSourceLookupKeyList.contains(lookupKey) == false) {
-                        Connection conn = null;
+                    if (dataSourceLookupKeyList.contains(lookupKey) == false
+                        && laggingLookupKeys.contains(lookupKey) == false
+                        && manuallyEjectedLookupKeys.contains(lookupKey) == false) {
                         try {
-                            conn = dataSource.getConnection();
-                            if (conn != null) {
-                                dataSourceLookupKeyList.add(lookupKey);
+                            if (probe(dataSource)) {
+                                if (dataSourceLookupKeyList.addIfAbsent(lookupKey)) {
+                                    revivalCounter.increment(lookupKey);
+                                    JfrEvents.replicaRevived(getName(), lookupKey, "failure");
+                                }
                                 logger.error("第[" + lookupKey + "] 数据源已连接,成功复活!");
                                 sendDBErrorMsg("数据库恢复", "---第 [" + lookupKey + "] 数据源连接成功,已复活!",
                                     "---[!!!重要!!!]第 [" + lookupKey + "] 数据源连接成功,已复活!");
+                            } else {
+                                allAlive = false;
+                                logger.error("第[" + lookupKey + "] 数据源依然不可用,未复活!");
                             }
                         } catch (Exception e) {
+                            allAlive = false;
                             logger.error("第[" + lookupKey + "] 数据源依然连接错误,未复活!", e);
                             sendDBErrorMsg("数据库异常", "---第[" + lookupKey + "] 数据源连接错误,未复活!", e);
-                        } finally {
-                            if (conn != null) {
-                                conn.close();
-                            }
                         }
                     }
                 }
@@ -189,6 +1100,198 @@ public class DynamicRoutingDataSource extends AbstractRoutingDataSource {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return allAlive;
+    }
+
+    /**
+     * 轻量探测:DynamicDataSource用独立的物理连接做Connection.isValid,不占用连接池;
+     * 其他数据源从池中取连接做isValid
+     */
+    private boolean probe(DataSource dataSource) throws SQLException {
+        if (dataSource instanceof DynamicDataSource) {
+            return ((DynamicDataSource) dataSource).probe(healthCheckTimeoutSeconds);
+        }
+        Connection conn = dataSource.getConnection();
+        try {
+            return conn.isValid(healthCheckTimeoutSeconds);
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 检查备库复制延迟,延迟超限的备库从环中剔除,追上后重新放进环中
+     */
+    private void checkReplicationLag() {
+        ReplicationLagProbe probe = replicationLagProbe;
+        if (probe == null || resolvedDataSources == null) {
+            return;
+        }
+        for (Iterator it = resolvedDataSources.entrySet().iterator(); it.hasNext();) {
+            Map.Entry entry = (Map.Entry) it.next();
+            Object lookupKey = entry.getKey();
+            if (manuallyEjectedLookupKeys.contains(lookupKey)) {
+                continue;
+            }
+            boolean lagging = laggingLookupKeys.contains(lookupKey);
+            //因连接失败被剔除的数据源由checkDataSourceForRecover处理
+            if (lagging == false && dataSourceLookupKeyList.contains(lookupKey) == false) {
+                continue;
+            }
+            long lagMillis;
+            Connection conn = null;
+            try {
+                conn = ((DataSource) entry.getValue()).getConnection();
+                lagMillis = probe.probeLagMillis(conn);
+            } catch (Exception e) {
+                logger.warn("第[" + lookupKey + "] 数据源复制延迟检查失败!", e);
+                continue;
+            } finally {
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException e) {
+                        logger.warn("第[" + lookupKey + "] 数据源关闭连接失败!", e);
+                    }
+                }
+            }
+            if (lagMillis > maxReplicationLagMillis) {
+                if (lagging == false && dataSourceLookupKeyList.remove(lookupKey)) {
+                    laggingLookupKeys.add(lookupKey);
+                    ejectionCounter.increment(lookupKey);
+                    JfrEvents.replicaEjected(getName(), lookupKey, "lag");
+                    String lag = lagMillis == Long.MAX_VALUE ? "复制已停止" : lagMillis + "ms";
+                    logger.error("---[!!!重要!!!]第 [" + lookupKey + "] 数据源复制延迟" + lag + ",已被剔除!");
+                    sendDBErrorMsg("数据库延迟", "---第 [" + lookupKey + "] 数据源复制延迟" + lag + ",已被剔除!",
+                        "---[!!!重要!!!]第 [" + lookupKey + "] 数据源复制延迟" + lag + ",已被剔除!");
+                }
+            } else if (lagging) {
+                laggingLookupKeys.remove(lookupKey);
+                if (dataSourceLookupKeyList.addIfAbsent(lookupKey)) {
+                    revivalCounter.increment(lookupKey);
+                    JfrEvents.replicaRevived(getName(), lookupKey, "lag");
+                }
+                logger.error("第[" + lookupKey + "] 数据源复制延迟" + lagMillis + "ms,已追上,重新加入!");
+                sendDBErrorMsg("数据库恢复", "---第 [" + lookupKey + "] 数据源复制已追上,已复活!",
+                    "---[!!!重要!!!]第 [" + lookupKey + "] 数据源复制延迟" + lagMillis + "ms,已复活!");
+            }
+        }
+    }
+
+    @Override
+    public List<String> getLookupKeys() {
+        List<String> result = new ArrayList<String>();
+        if (resolvedDataSources != null) {
+            for (Object lookupKey : resolvedDataSources.keySet()) {
+                result.add(String.valueOf(lookupKey));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getAvailableLookupKeys() {
+        return toStrings(dataSourceLookupKeyList);
+    }
+
+    @Override
+    public List<String> getEjectedLookupKeys() {
+        List<String> result = getLookupKeys();
+        result.removeAll(getAvailableLookupKeys());
+        result.removeAll(getLaggingLookupKeys());
+        result.removeAll(getManuallyEjectedLookupKeys());
+        return result;
+    }
+
+    @Override
+    public List<String> getLaggingLookupKeys() {
+        return toStrings(laggingLookupKeys);
+    }
+
+    @Override
+    public List<String> getManuallyEjectedLookupKeys() {
+        return toStrings(manuallyEjectedLookupKeys);
+    }
+
+    @Override
+    public void ejectReplica(String lookupKey) {
+        Object key = resolveLookupKey(lookupKey);
+        manuallyEjectedLookupKeys.add(key);
+        if (dataSourceLookupKeyList.remove(key)) {
+            ejectionCounter.increment(key);
+            JfrEvents.replicaEjected(getName(), key, "manual");
+        }
+        laggingLookupKeys.remove(key);
+        logger.warn("---第 [" + key + "] 数据源已被手工剔除!");
+    }
+
+    @Override
+    public void readmitReplica(String lookupKey) {
+        Object key = resolveLookupKey(lookupKey);
+        manuallyEjectedLookupKeys.remove(key);
+        laggingLookupKeys.remove(key);
+        if (dataSourceLookupKeyList.addIfAbsent(key)) {
+            revivalCounter.increment(key);
+            JfrEvents.replicaRevived(getName(), key, "manual");
+        }
+        logger.warn("---第 [" + key + "] 数据源已手工恢复!");
+    }
+
+    private Object resolveLookupKey(String lookupKey) {
+        if (resolvedDataSources != null) {
+            for (Object key : resolvedDataSources.keySet()) {
+                if (String.valueOf(key).equals(lookupKey)) {
+                    return key;
+                }
+            }
+        }
+        throw new RuntimeException("没有数据源 [" + lookupKey + "]");
+    }
+
+    private static List<String> toStrings(Iterable<Object> lookupKeys) {
+        List<String> result = new ArrayList<String>();
+        for (Object lookupKey : lookupKeys) {
+            result.add(String.valueOf(lookupKey));
+        }
+        return result;
+    }
+
+    private void collectMetrics(MetricsSink sink) {
+        String[] labels = { getName() };
+        routedCounter.collect(sink, "dds_routing_connections_total",
+            "Connections obtained per lookup key", KEY_LABELS, labels);
+        routeFailureCounter.collect(sink, "dds_routing_failures_total",
+            "Failed attempts to obtain a connection per lookup key", KEY_LABELS, labels);
+        ejectionCounter.collect(sink, "dds_routing_ejections_total",
+            "Times a replica was taken out of rotation", KEY_LABELS, labels);
+        revivalCounter.collect(sink, "dds_routing_revivals_total",
+            "Times a replica was put back into rotation", KEY_LABELS, labels);
+        for (String lookupKey : getLookupKeys()) {
+            sink.gauge("dds_routing_available", "1 while the replica is in rotation", KEY_LABELS,
+                new String[] { labels[0], lookupKey },
+                getAvailableLookupKeys().contains(lookupKey) ? 1 : 0);
+        }
+    }
+
+    private String getName() {
+        return beanName != null ? beanName : "routing-" + System.identityHashCode(this);
+    }
+
+    @Override
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * 是否注册JMX MBean(com.isumi:type=DynamicRoutingDataSource,name=beanName),默认true,
+     * 可查看各备库的剔除状态并手工剔除或恢复备库
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
     }
 
     @Override
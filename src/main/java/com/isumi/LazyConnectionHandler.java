@@ -0,0 +1,124 @@
+package com.isumi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Connection returned by {@link DynamicDataSource} in lazy mode. Nothing is borrowed from the
+ * pool until a method that needs the database is called; autoCommit, readOnly and
+ * transaction isolation set before that are recorded and applied to the pooled connection,
+ * and commit/rollback/close on an untouched connection are no-ops.
+ */
+class LazyConnectionHandler implements InvocationHandler {
+
+    private final DynamicDataSource dynamicDataSource;
+    private final boolean           needParams;
+    private final String            username;
+    private final String            password;
+
+    private Connection              target;
+    private Boolean                 autoCommit;
+    private Boolean                 readOnly;
+    private Integer                 transactionIsolation;
+    private boolean                 closed = false;
+
+    private LazyConnectionHandler(DynamicDataSource dynamicDataSource, boolean needParams,
+                                  String username, String password) {
+        this.dynamicDataSource = dynamicDataSource;
+        this.needParams = needParams;
+        this.username = username;
+        this.password = password;
+    }
+
+    static Connection wrap(DynamicDataSource dynamicDataSource, boolean needParams, String username,
+                           String password) {
+        return (Connection) Proxy.newProxyInstance(LazyConnectionHandler.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new LazyConnectionHandler(dynamicDataSource, needParams, username, password));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name)) {
+            return "LazyConnection[" + (target != null ? target : "not borrowed") + "]";
+        } else if ("isClosed".equals(name)) {
+            return closed;
+        } else if ("close".equals(name)) {
+            closed = true;
+            if (target != null) {
+                target.close();
+            }
+            return null;
+        }
+        if (closed) {
+            throw new SQLException("Connection is closed.");
+        }
+
+        if (target == null) {
+            if ("setAutoCommit".equals(name)) {
+                autoCommit = (Boolean) args[0];
+                return null;
+            } else if ("getAutoCommit".equals(name)) {
+                return autoCommit != null ? autoCommit : defaultFlag("defaultAutoCommit", true);
+            } else if ("setReadOnly".equals(name)) {
+                readOnly = (Boolean) args[0];
+                return null;
+            } else if ("isReadOnly".equals(name)) {
+                return readOnly != null ? readOnly : defaultFlag("defaultReadOnly", false);
+            } else if ("setTransactionIsolation".equals(name)) {
+                transactionIsolation = (Integer) args[0];
+                return null;
+            } else if ("getTransactionIsolation".equals(name) && transactionIsolation != null) {
+                return transactionIsolation;
+            } else if (("commit".equals(name) || "rollback".equals(name))
+                       && (args == null || args.length == 0)) {
+                return null;
+            } else if ("getWarnings".equals(name) || "clearWarnings".equals(name)) {
+                return null;
+            }
+            target = borrow();
+        }
+
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        Connection conn = dynamicDataSource.getAds().getConnectionWithLock(needParams, username,
+            password, dynamicDataSource.getTransactionIsolation());
+        try {
+            if (transactionIsolation != null) {
+                conn.setTransactionIsolation(transactionIsolation);
+            }
+            if (readOnly != null && conn.isReadOnly() != readOnly) {
+                conn.setReadOnly(readOnly);
+            }
+            if (autoCommit != null && conn.getAutoCommit() != autoCommit) {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    private boolean defaultFlag(String key, boolean defaultValue) {
+        Properties properties = dynamicDataSource.getDsProperties();
+        String value = properties != null ? properties.getProperty(key) : null;
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
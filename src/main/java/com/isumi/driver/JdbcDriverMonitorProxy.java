@@ -6,6 +6,8 @@ import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.util.Properties;
 
+import com.isumi.jfr.JfrEvents;
+
 public abstract class JdbcDriverMonitorProxy implements Driver {
 
     public class PhyGetConnException extends SQLException {
@@ -68,14 +70,18 @@ public abstract class JdbcDriverMonitorProxy implements Driver {
 
     @Override
     public Connection connect(String url, Properties info) throws SQLException {
+        Object jfrEvent = JfrEvents.beginConnect();
         try {
-            return getRealDriver().connect(url, info);
+            Connection connection = getRealDriver().connect(url, info);
+            JfrEvents.endConnect(jfrEvent, url, connection != null, false);
+            return connection;
         } catch (SQLException e) {
             PhyGetConnException phyGetConnException = new PhyGetConnException(e.getMessage(), e.getSQLState(),
                     e.getErrorCode(), e);
             if (isExceptionFatal(e)) {
                 phyGetConnException.setExceptionFatal(true);
             }
+            JfrEvents.endConnect(jfrEvent, url, false, phyGetConnException.isExceptionFatal());
             throw phyGetConnException;
         }
     }
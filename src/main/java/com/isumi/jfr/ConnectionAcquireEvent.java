@@ -0,0 +1,45 @@
+package com.isumi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+@Name("com.isumi.ConnectionAcquire")
+@Label("Connection Acquire")
+@Category("Dynamic DataSource")
+@Description("One getConnection() on a data source node, retries included")
+@Threshold("10 ms")
+@StackTrace(false)
+final class ConnectionAcquireEvent extends jdk.jfr.Event {
+
+    @Label("Data Source")
+    String  dataSource;
+
+    @Label("Outcome")
+    @Description("OK, BREAKER_OPEN, DB_ERROR, TIMEOUT or INTERRUPTED")
+    String  outcome;
+
+    @Label("Attempts")
+    int     attempts;
+
+    @Label("Pool Wait")
+    @Description("Time spent in the pool, physical connects excluded")
+    @Timespan(Timespan.NANOSECONDS)
+    long    poolWait;
+
+    @Label("Retry Backoff")
+    @Timespan(Timespan.NANOSECONDS)
+    long    retryBackoff;
+
+    @Label("Physical Connect")
+    @Description("Time spent opening new connections to the database")
+    @Timespan(Timespan.NANOSECONDS)
+    long    physicalConnect;
+
+    transient long startNanos;
+    transient long connectMark;
+}
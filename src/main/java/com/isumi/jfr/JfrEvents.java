@@ -0,0 +1,110 @@
+package com.isumi.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events of the data sources, grouped under the "Dynamic DataSource"
+ * category:
+ * <ul>
+ * <li><code>com.isumi.ConnectionAcquire</code>: a getConnection() on one node taking
+ * longer than its threshold (10 ms), with the pool wait / retry backoff / physical connect
+ * breakdown;</li>
+ * <li><code>com.isumi.PhysicalConnect</code>: every connect through the monitored JDBC
+ * driver, with its fatal flag;</li>
+ * <li><code>com.isumi.NodeSwitch</code>: failovers, failbacks and forced switches;</li>
+ * <li><code>com.isumi.ReplicaRotation</code>: replica ejections and revivals.</li>
+ * </ul>
+ * Thresholds can be changed in the recording settings, e.g.
+ * <code>com.isumi.ConnectionAcquire#threshold=50 ms</code>.
+ * <p>The library targets Java 8, where jdk.jfr only exists from 8u262 on, so callers go
+ * through this class with untyped tokens and the event classes are only loaded when the
+ * running JVM has JFR. Without JFR, or while no recording enables an event, every method
+ * returns after a field read and allocates nothing.
+ */
+public final class JfrEvents {
+
+    private static final Logger  LOGGER    = LoggerFactory.getLogger(JfrEvents.class);
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            Class.forName(JfrRecorder.class.getName(), true, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (Throwable t) {
+            LOGGER.debug("Flight Recorder events disabled: " + t);
+            return false;
+        }
+    }
+
+    /**
+     * @return token for {@link #endAcquire}, null when the event is off
+     */
+    public static Object beginAcquire() {
+        return AVAILABLE ? JfrRecorder.beginAcquire() : null;
+    }
+
+    /**
+     * @param outcome OK, BREAKER_OPEN, DB_ERROR, TIMEOUT or INTERRUPTED
+     */
+    public static void endAcquire(Object token, String dataSource, int attempts,
+                                  long retryBackoffMillis, String outcome) {
+        if (token != null) {
+            JfrRecorder.endAcquire(token, dataSource, attempts, retryBackoffMillis, outcome);
+        }
+    }
+
+    /**
+     * @return token for {@link #endConnect}, null when neither the connect nor the acquire
+     *         event is on
+     */
+    public static Object beginConnect() {
+        return AVAILABLE ? JfrRecorder.beginConnect() : null;
+    }
+
+    public static void endConnect(Object token, String url, boolean success, boolean fatal) {
+        if (token != null) {
+            JfrRecorder.endConnect(token, url, success, fatal);
+        }
+    }
+
+    /**
+     * @return token for {@link #endSwitch}, null when the event is off
+     */
+    public static Object beginSwitch() {
+        return AVAILABLE ? JfrRecorder.beginSwitch() : null;
+    }
+
+    /**
+     * @param kind failover, failback or forced
+     */
+    public static void endSwitch(Object token, String dataSource, String kind, String fromUrl,
+                                 String toUrl, boolean success) {
+        if (token != null) {
+            JfrRecorder.endSwitch(token, dataSource, kind, fromUrl, toUrl, success);
+        }
+    }
+
+    /**
+     * @param reason failure, lag or manual
+     */
+    public static void replicaEjected(String dataSource, Object lookupKey, String reason) {
+        if (AVAILABLE) {
+            JfrRecorder.replicaRotation(dataSource, lookupKey, true, reason);
+        }
+    }
+
+    /**
+     * @param reason failure (recover check), lag (lag check) or manual
+     */
+    public static void replicaRevived(String dataSource, Object lookupKey, String reason) {
+        if (AVAILABLE) {
+            JfrRecorder.replicaRotation(dataSource, lookupKey, false, reason);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.isumi.jfr;
+
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.EventType;
+
+/**
+ * The part of {@link JfrEvents} that touches jdk.jfr, only loaded when the JVM has it.
+ */
+final class JfrRecorder {
+
+    private static final EventType           ACQUIRE       = EventType
+        .getEventType(ConnectionAcquireEvent.class);
+    private static final EventType           CONNECT       = EventType
+        .getEventType(PhysicalConnectEvent.class);
+    private static final EventType           SWITCH        = EventType
+        .getEventType(NodeSwitchEvent.class);
+    private static final EventType           ROTATION      = EventType
+        .getEventType(ReplicaRotationEvent.class);
+
+    /**
+     * Per thread: total physical connect nanos, start of the running connect (0 if none).
+     */
+    private static final ThreadLocal<long[]> CONNECT_NANOS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    /** Marks a connect timed only for the acquire breakdown. */
+    private static final Object              TRACK_ONLY    = new Object();
+
+    private JfrRecorder() {
+    }
+
+    static Object beginAcquire() {
+        if (!ACQUIRE.isEnabled()) {
+            return null;
+        }
+        ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+        event.connectMark = CONNECT_NANOS.get()[0];
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    static void endAcquire(Object token, String dataSource, int attempts,
+                           long retryBackoffMillis, String outcome) {
+        ConnectionAcquireEvent event = (ConnectionAcquireEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            long total = System.nanoTime() - event.startNanos;
+            event.dataSource = dataSource;
+            event.outcome = outcome;
+            event.attempts = attempts;
+            event.retryBackoff = TimeUnit.MILLISECONDS.toNanos(retryBackoffMillis);
+            event.physicalConnect = CONNECT_NANOS.get()[0] - event.connectMark;
+            event.poolWait = Math.max(0L, total - event.retryBackoff - event.physicalConnect);
+            event.commit();
+        }
+    }
+
+    static Object beginConnect() {
+        boolean track = ACQUIRE.isEnabled();
+        if (track) {
+            CONNECT_NANOS.get()[1] = System.nanoTime();
+        }
+        if (CONNECT.isEnabled()) {
+            PhysicalConnectEvent event = new PhysicalConnectEvent();
+            event.begin();
+            return event;
+        }
+        return track ? TRACK_ONLY : null;
+    }
+
+    static void endConnect(Object token, String url, boolean success, boolean fatal) {
+        long[] nanos = CONNECT_NANOS.get();
+        if (nanos[1] != 0L) {
+            nanos[0] += System.nanoTime() - nanos[1];
+            nanos[1] = 0L;
+        }
+        if (token instanceof PhysicalConnectEvent) {
+            PhysicalConnectEvent event = (PhysicalConnectEvent) token;
+            event.end();
+            if (event.shouldCommit()) {
+                event.url = url;
+                event.success = success;
+                event.fatal = fatal;
+                event.commit();
+            }
+        }
+    }
+
+    static Object beginSwitch() {
+        if (!SWITCH.isEnabled()) {
+            return null;
+        }
+        NodeSwitchEvent event = new NodeSwitchEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endSwitch(Object token, String dataSource, String kind, String fromUrl,
+                          String toUrl, boolean success) {
+        NodeSwitchEvent event = (NodeSwitchEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.dataSource = dataSource;
+            event.kind = kind;
+            event.fromUrl = fromUrl;
+            event.toUrl = toUrl;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    static void replicaRotation(String dataSource, Object lookupKey, boolean ejected,
+                                String reason) {
+        if (!ROTATION.isEnabled()) {
+            return;
+        }
+        ReplicaRotationEvent event = new ReplicaRotationEvent();
+        if (event.shouldCommit()) {
+            event.dataSource = dataSource;
+            event.lookupKey = String.valueOf(lookupKey);
+            event.ejected = ejected;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
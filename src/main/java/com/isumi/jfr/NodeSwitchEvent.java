@@ -0,0 +1,31 @@
+package com.isumi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("com.isumi.NodeSwitch")
+@Label("Node Switch")
+@Category("Dynamic DataSource")
+@Description("DynamicDataSource moving traffic to another node, warm up or test included")
+@Threshold("0 ms")
+final class NodeSwitchEvent extends jdk.jfr.Event {
+
+    @Label("Data Source")
+    String  dataSource;
+
+    @Label("Kind")
+    @Description("failover, failback or forced")
+    String  kind;
+
+    @Label("From")
+    String  fromUrl;
+
+    @Label("To")
+    String  toUrl;
+
+    @Label("Success")
+    boolean success;
+}
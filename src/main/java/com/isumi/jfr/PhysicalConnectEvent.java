@@ -0,0 +1,27 @@
+package com.isumi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("com.isumi.PhysicalConnect")
+@Label("Physical Connect")
+@Category("Dynamic DataSource")
+@Description("A new connection opened through the monitored JDBC driver")
+@Threshold("0 ms")
+@StackTrace(false)
+final class PhysicalConnectEvent extends jdk.jfr.Event {
+
+    @Label("URL")
+    String  url;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Fatal")
+    @Description("The error means the database is down, not just this connect")
+    boolean fatal;
+}
@@ -0,0 +1,29 @@
+package com.isumi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("com.isumi.ReplicaRotation")
+@Label("Replica Rotation")
+@Category("Dynamic DataSource")
+@Description("DynamicRoutingDataSource taking a replica out of rotation or putting it back")
+@Threshold("0 ms")
+final class ReplicaRotationEvent extends jdk.jfr.Event {
+
+    @Label("Data Source")
+    String  dataSource;
+
+    @Label("Lookup Key")
+    String  lookupKey;
+
+    @Label("Ejected")
+    @Description("true when taken out, false when put back")
+    boolean ejected;
+
+    @Label("Reason")
+    @Description("failure, lag or manual")
+    String  reason;
+}
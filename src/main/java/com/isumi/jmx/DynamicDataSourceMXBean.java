@@ -0,0 +1,45 @@
+package com.isumi.jmx;
+
+import java.util.List;
+
+/**
+ * Live state and runtime controls of a DynamicDataSource, registered as
+ * <code>com.isumi:type=DynamicDataSource,name=&lt;bean name&gt;</code>.
+ */
+public interface DynamicDataSourceMXBean {
+
+    String getDataId();
+
+    /**
+     * @return index of the node borrowers are routed to, -1 before startup
+     */
+    int getActiveNodeIndex();
+
+    String getActiveNodeUrl();
+
+    List<NodeStatus> getNodes();
+
+    /**
+     * Move traffic to the first other node that accepts a connection. The failover check
+     * won't switch back on its own while the new node stays healthy.
+     *
+     * @return index of the node now active
+     */
+    int forceFailover();
+
+    /**
+     * Move traffic back to the master (node 0).
+     */
+    void forceFailback();
+
+    /**
+     * Move traffic to the given node after testing (or warming up) it.
+     */
+    void switchTo(int index);
+
+    /**
+     * Resize the pool of one node in place. maxActive can't go above the value the pool was
+     * created with; change the config file to grow it.
+     */
+    void resizePool(int index, int maxActive, int maxIdle, int minIdle);
+}
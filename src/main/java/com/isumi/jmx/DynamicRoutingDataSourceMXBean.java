@@ -0,0 +1,48 @@
+package com.isumi.jmx;
+
+import java.util.List;
+
+/**
+ * Live routing state and runtime controls of a DynamicRoutingDataSource, registered as
+ * <code>com.isumi:type=DynamicRoutingDataSource,name=&lt;bean name&gt;</code>. Lookup keys
+ * are shown and matched by their toString().
+ */
+public interface DynamicRoutingDataSourceMXBean {
+
+    /**
+     * @return every configured replica
+     */
+    List<String> getLookupKeys();
+
+    /**
+     * @return replicas reads are currently routed to
+     */
+    List<String> getAvailableLookupKeys();
+
+    /**
+     * @return replicas out of rotation after a connection failure, waiting for the recover
+     *         check
+     */
+    List<String> getEjectedLookupKeys();
+
+    /**
+     * @return replicas out of rotation for replication lag
+     */
+    List<String> getLaggingLookupKeys();
+
+    /**
+     * @return replicas taken out of rotation by {@link #ejectReplica(String)}
+     */
+    List<String> getManuallyEjectedLookupKeys();
+
+    /**
+     * Take a replica out of rotation until {@link #readmitReplica(String)}; the recover and
+     * lag checks leave it alone.
+     */
+    void ejectReplica(String lookupKey);
+
+    /**
+     * Put a replica back into rotation right away, whatever took it out.
+     */
+    void readmitReplica(String lookupKey);
+}
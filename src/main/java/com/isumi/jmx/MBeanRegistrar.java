@@ -0,0 +1,54 @@
+package com.isumi.jmx;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the data source MBeans in the platform MBean server. A failure (e.g. two
+ * applications in one JVM using the same bean name) is logged and never stops the data
+ * source.
+ */
+public final class MBeanRegistrar {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MBeanRegistrar.class);
+
+    private static final String DOMAIN = "com.isumi";
+
+    private MBeanRegistrar() {
+    }
+
+    /**
+     * @return the name the bean got, null if it couldn't be registered
+     */
+    public static ObjectName register(Object mbean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name="
+                                                   + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            LOGGER.warn("Can't register MBean " + type + " " + name + ": " + e);
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Can't unregister MBean " + objectName + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.isumi.jmx;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * State of one node of a DynamicDataSource as shown over JMX.
+ */
+public class NodeStatus {
+
+    private final int     index;
+    private final String  name;
+    private final String  url;
+    private final boolean active;
+    private final String  breakerState;
+    private final long    windowFailures;
+    private final long    windowCalls;
+    private final int     poolActive;
+    private final int     poolIdle;
+    private final int     poolSize;
+    private final int     maxActive;
+    private final long[]  retryCounts;
+    private final long    exhaustedRetries;
+
+    @ConstructorProperties({ "index", "name", "url", "active", "breakerState", "windowFailures",
+            "windowCalls", "poolActive", "poolIdle", "poolSize", "maxActive", "retryCounts",
+            "exhaustedRetries" })
+    public NodeStatus(int index, String name, String url, boolean active, String breakerState,
+                      long windowFailures, long windowCalls, int poolActive, int poolIdle,
+                      int poolSize, int maxActive, long[] retryCounts, long exhaustedRetries) {
+        this.index = index;
+        this.name = name;
+        this.url = url;
+        this.active = active;
+        this.breakerState = breakerState;
+        this.windowFailures = windowFailures;
+        this.windowCalls = windowCalls;
+        this.poolActive = poolActive;
+        this.poolIdle = poolIdle;
+        this.poolSize = poolSize;
+        this.maxActive = maxActive;
+        this.retryCounts = retryCounts != null ? retryCounts.clone() : new long[0];
+        this.exhaustedRetries = exhaustedRetries;
+    }
+
+    /**
+     * @return position of the node, 0 is the master
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return whether borrowers are currently routed to this node
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN
+     */
+    public String getBreakerState() {
+        return breakerState;
+    }
+
+    /**
+     * @return failed physical connects in the circuit breaker window
+     */
+    public long getWindowFailures() {
+        return windowFailures;
+    }
+
+    public long getWindowCalls() {
+        return windowCalls;
+    }
+
+    /**
+     * @return connections currently borrowed
+     */
+    public int getPoolActive() {
+        return poolActive;
+    }
+
+    public int getPoolIdle() {
+        return poolIdle;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    /**
+     * @return retries scheduled by the node's RetryPolicy, index i is the (i+1)th retry of a
+     *         borrow, the last element also counts later retries
+     */
+    public long[] getRetryCounts() {
+        return retryCounts.clone();
+    }
+
+    /**
+     * @return borrows that ran out of retry budget
+     */
+    public long getExhaustedRetries() {
+        return exhaustedRetries;
+    }
+}
@@ -0,0 +1,50 @@
+package com.isumi.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One LongAdder per key. The keys are fixed when the counter is built, so
+ * {@link #increment(Object)} is a map lookup and an add, without locking or allocating;
+ * unknown keys are ignored.
+ */
+public final class KeyedCounter {
+
+    private final Map<Object, LongAdder> counters;
+
+    public KeyedCounter(Collection<?> keys) {
+        Map<Object, LongAdder> map = new LinkedHashMap<Object, LongAdder>();
+        for (Object key : keys) {
+            map.put(key, new LongAdder());
+        }
+        this.counters = Collections.unmodifiableMap(map);
+    }
+
+    public void increment(Object key) {
+        LongAdder counter = counters.get(key);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    public long get(Object key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter.sum() : 0L;
+    }
+
+    /**
+     * Report every key as a counter sample, the key's toString() being the last label.
+     */
+    public void collect(MetricsSink sink, String name, String help, String[] labelNames,
+                        String[] labelValues) {
+        for (Map.Entry<Object, LongAdder> entry : counters.entrySet()) {
+            String[] values = new String[labelValues.length + 1];
+            System.arraycopy(labelValues, 0, values, 0, labelValues.length);
+            values[labelValues.length] = String.valueOf(entry.getKey());
+            sink.counter(name, help, labelNames, values, entry.getValue().sum());
+        }
+    }
+}
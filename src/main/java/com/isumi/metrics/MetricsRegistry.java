@@ -0,0 +1,44 @@
+package com.isumi.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The metrics sources of the JVM. DynamicDataSource and DynamicRoutingDataSource register
+ * themselves on startup and leave on close; exporters pull from here.
+ */
+public final class MetricsRegistry {
+
+    private static final Logger              LOGGER  = LoggerFactory
+        .getLogger(MetricsRegistry.class);
+
+    private static final List<MetricsSource> SOURCES = new CopyOnWriteArrayList<MetricsSource>();
+
+    private MetricsRegistry() {
+    }
+
+    public static void register(MetricsSource source) {
+        SOURCES.add(source);
+    }
+
+    public static void unregister(MetricsSource source) {
+        SOURCES.remove(source);
+    }
+
+    /**
+     * Let every registered source report to <code>sink</code>; a failing source is logged and
+     * skipped.
+     */
+    public static void collect(MetricsSink sink) {
+        for (MetricsSource source : SOURCES) {
+            try {
+                source.collect(sink);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Metrics source " + source + " failed", e);
+            }
+        }
+    }
+}
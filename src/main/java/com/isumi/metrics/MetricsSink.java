@@ -0,0 +1,28 @@
+package com.isumi.metrics;
+
+/**
+ * Receives the values of one collection, see {@link MetricsRegistry#collect(MetricsSink)}.
+ * Implement it to feed another monitoring system; {@link PrometheusExporter} is the default.
+ * <p>Samples of one metric may come from several sources and be interleaved with other
+ * metrics, <code>help</code> is the same for every sample of a metric.
+ */
+public interface MetricsSink {
+
+    /**
+     * A value that only grows, reset when the data source node is rebuilt.
+     */
+    void counter(String name, String help, String[] labelNames, String[] labelValues,
+                 double value);
+
+    void gauge(String name, String help, String[] labelNames, String[] labelValues,
+               double value);
+
+    /**
+     * @param upperBounds inclusive upper bound of every bucket, the last one is
+     *            {@link Double#POSITIVE_INFINITY}
+     * @param bucketCounts number of values in each bucket (not cumulative)
+     * @param sum sum of all values, in the unit of the bounds
+     */
+    void histogram(String name, String help, String[] labelNames, String[] labelValues,
+                   double[] upperBounds, long[] bucketCounts, double sum);
+}
@@ -0,0 +1,10 @@
+package com.isumi.metrics;
+
+/**
+ * Something that reports metrics when collected. Sources read the counters the data sources
+ * keep anyway, so collecting costs nothing on the getConnection() path.
+ */
+public interface MetricsSource {
+
+    void collect(MetricsSink sink);
+}
@@ -0,0 +1,245 @@
+package com.isumi.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of {@link MetricsRegistry} in the Prometheus text format from an
+ * embedded JDK HttpServer, at <code>http://host:port/metrics</code> by default. Declare it
+ * once per JVM as a Spring bean with <code>destroy-method="close"</code>, the HttpServer
+ * dispatcher thread keeps the JVM alive until closed. Scrapes are served one at a time and
+ * collect on demand.
+ */
+public class PrometheusExporter implements InitializingBean {
+
+    private static final Logger  LOGGER       = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    private static final Charset UTF8         = Charset.forName("UTF-8");
+    private static final String  CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private String               host;
+    private int                  port         = 9404;
+    private String               path         = "/metrics";
+
+    private HttpServer           server;
+    private ExecutorService      executor;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        start();
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        InetSocketAddress address = StringUtils.isBlank(host) ? new InetSocketAddress(port)
+            : new InetSocketAddress(host, port);
+        server = HttpServer.create(address, 0);
+        server.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "-dds-prometheus-exporter-");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+        LOGGER.info("Prometheus metrics served at http://" + server.getAddress().getHostString()
+                    + ":" + server.getAddress().getPort() + path);
+    }
+
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the bound port, useful with port 0; -1 when not started
+     */
+    public synchronized int getLocalPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())
+                && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(UTF8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return every registered metric in the Prometheus text format
+     */
+    public static String scrape() {
+        TextFormatSink sink = new TextFormatSink();
+        MetricsRegistry.collect(sink);
+        return sink.toString();
+    }
+
+    /**
+     * Groups the samples per metric, the format wants the samples of a metric together
+     * after its HELP and TYPE lines.
+     */
+    private static final class TextFormatSink implements MetricsSink {
+
+        private final Map<String, StringBuilder> families = new LinkedHashMap<String, StringBuilder>();
+
+        @Override
+        public void counter(String name, String help, String[] labelNames,
+                            String[] labelValues, double value) {
+            sample(family(name, help, "counter"), name, labelNames, labelValues, null, null,
+                value);
+        }
+
+        @Override
+        public void gauge(String name, String help, String[] labelNames, String[] labelValues,
+                          double value) {
+            sample(family(name, help, "gauge"), name, labelNames, labelValues, null, null, value);
+        }
+
+        @Override
+        public void histogram(String name, String help, String[] labelNames,
+                              String[] labelValues, double[] upperBounds, long[] bucketCounts,
+                              double sum) {
+            StringBuilder builder = family(name, help, "histogram");
+            long cumulative = 0;
+            for (int i = 0; i < upperBounds.length; i++) {
+                cumulative += bucketCounts[i];
+                sample(builder, name + "_bucket", labelNames, labelValues, "le",
+                    format(upperBounds[i]), cumulative);
+            }
+            sample(builder, name + "_sum", labelNames, labelValues, null, null, sum);
+            sample(builder, name + "_count", labelNames, labelValues, null, null, cumulative);
+        }
+
+        private StringBuilder family(String name, String help, String type) {
+            StringBuilder builder = families.get(name);
+            if (builder == null) {
+                builder = new StringBuilder();
+                builder.append("# HELP ").append(name).append(' ')
+                    .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+                builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+                families.put(name, builder);
+            }
+            return builder;
+        }
+
+        private static void sample(StringBuilder builder, String name, String[] labelNames,
+                                   String[] labelValues, String extraName, String extraValue,
+                                   double value) {
+            builder.append(name);
+            if (labelNames.length > 0 || extraName != null) {
+                builder.append('{');
+                for (int i = 0; i < labelNames.length; i++) {
+                    label(builder, labelNames[i], labelValues[i]).append(',');
+                }
+                if (extraName != null) {
+                    label(builder, extraName, extraValue).append(',');
+                }
+                builder.setCharAt(builder.length() - 1, '}');
+            }
+            builder.append(' ').append(format(value)).append('\n');
+        }
+
+        private static StringBuilder label(StringBuilder builder, String name, String value) {
+            String escaped = value == null ? "" : value.replace("\\", "\\\\")
+                .replace("\"", "\\\"").replace("\n", "\\n");
+            return builder.append(name).append("=\"").append(escaped).append('"');
+        }
+
+        private static String format(double value) {
+            if (value == Double.POSITIVE_INFINITY) {
+                return "+Inf";
+            }
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (StringBuilder family : families.values()) {
+                builder.append(family);
+            }
+            return builder.toString();
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Address to bind, all interfaces by default.
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Port to listen on, default 9404, 0 for any free port.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+}
@@ -0,0 +1,204 @@
+package com.isumi.monitor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection acquisition counters of one data source node.
+ * <p>Counters live in an interval object that {@link #flush(String)} swaps for a fresh one.
+ * Recording only touches LongAdders, it reads the running interval and then increments it, so
+ * a recording that races with a flush lands in the interval that just ended, after the flush
+ * took its snapshot: interval snapshots can miss such a recording, and within one snapshot
+ * borrows and latency can be off by the recordings in flight.
+ * <p>{@link #total(String)} does not lose them. The ended interval is kept and only folded into
+ * the running totals at the next flush, by which time stragglers have landed; until then it
+ * is read live like the running interval. Counters only grow, so every total is at least the
+ * previous one, which the Prometheus counters built on it rely on. Only a thread stalled for a
+ * whole flush period between reading the interval and incrementing it can still be missed.
+ */
+public class ConnectionMonitor {
+
+    private static final Logger            ARCHIVE_LOGGER = LoggerFactory
+        .getLogger(ConnectionMonitor.class);
+
+    private volatile int                    sqlStatsCapacity = 256;
+    private final AtomicReference<Interval> current          = new AtomicReference<Interval>(
+        new Interval(sqlStatsCapacity));
+    private volatile MonitorSnapshot        lastSnapshot;
+
+    private final long                      createdMillis    = System.currentTimeMillis();
+    /** Guards the two fields below. */
+    private final Object                    totalLock        = new Object();
+    /** The interval ended by the last flush, not yet folded into the totals. */
+    private Interval                        ended;
+    private final Totals                    totals           = new Totals();
+
+    public void onBorrow(long acquireNanos) {
+        Interval interval = current.get();
+        interval.borrows.increment();
+        interval.latency.record(acquireNanos);
+    }
+
+    public void onFailure() {
+        current.get().failures.increment();
+    }
+
+    public void onRetry() {
+        current.get().retries.increment();
+    }
+
+    public void onTimeout() {
+        current.get().timeouts.increment();
+    }
+
+    public void onBreakerTrip() {
+        current.get().breakerTrips.increment();
+    }
+
+    public void onStatement(String sql, long elapsedNanos, long rows, boolean failed) {
+        current.get().sqlStats.record(sql, elapsedNanos, rows, failed);
+    }
+
+    /**
+     * Number of statement fingerprints tracked per interval, from the next interval on.
+     */
+    public void setSqlStatsCapacity(int sqlStatsCapacity) {
+        this.sqlStatsCapacity = sqlStatsCapacity;
+    }
+
+    /**
+     * @return the counters of the running interval, without resetting them
+     */
+    public MonitorSnapshot snapshot(String dsName) {
+        return current.get().toSnapshot(dsName, System.currentTimeMillis());
+    }
+
+    /**
+     * Ends the running interval and starts a new one.
+     *
+     * @return the counters of the ended interval, a recording racing with the flush may be
+     *         missing from it
+     */
+    public MonitorSnapshot flush(String dsName) {
+        MonitorSnapshot snapshot;
+        synchronized (totalLock) {
+            if (ended != null) {
+                totals.add(ended);
+            }
+            ended = current.getAndSet(new Interval(sqlStatsCapacity));
+            snapshot = ended.toSnapshot(dsName, System.currentTimeMillis());
+        }
+        lastSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * @return the counters since this monitor was created, running interval included,
+     *         without statement statistics; never less than a previous call returned
+     */
+    public MonitorSnapshot total(String dsName) {
+        synchronized (totalLock) {
+            Totals result = totals.copy();
+            if (ended != null) {
+                result.add(ended);
+            }
+            result.add(current.get());
+            return result.toSnapshot(dsName, createdMillis, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return the interval ended by the last flush, null before the first one
+     */
+    public MonitorSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    /**
+     * Writes the snapshot to the <code>com.isumi.monitor.ConnectionMonitor</code> logger, route
+     * it to its own file to keep the monitoring archive.
+     */
+    public static void archive(MonitorSnapshot snapshot, int topStatements) {
+        if (ARCHIVE_LOGGER.isInfoEnabled()) {
+            StringBuilder builder = new StringBuilder(snapshot.toString());
+            List<SqlStats> statements = snapshot.getStatements();
+            for (int i = 0; i < Math.min(topStatements, statements.size()); i++) {
+                builder.append("\n  ").append(statements.get(i));
+            }
+            ARCHIVE_LOGGER.info(builder.toString());
+        }
+    }
+
+    private static final class Totals {
+
+        final long[] latency = new long[LatencyHistogram.BUCKETS];
+        long         borrows;
+        long         failures;
+        long         retries;
+        long         timeouts;
+        long         breakerTrips;
+        long         latencySumMicros;
+        long         latencyMaxMicros;
+
+        void add(Interval interval) {
+            borrows += interval.borrows.sum();
+            failures += interval.failures.sum();
+            retries += interval.retries.sum();
+            timeouts += interval.timeouts.sum();
+            breakerTrips += interval.breakerTrips.sum();
+            long[] counts = interval.latency.getCounts();
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] += counts[i];
+            }
+            latencySumMicros += interval.latency.getSumMicros();
+            latencyMaxMicros = Math.max(latencyMaxMicros, interval.latency.getMaxMicros());
+        }
+
+        Totals copy() {
+            Totals copy = new Totals();
+            System.arraycopy(latency, 0, copy.latency, 0, latency.length);
+            copy.borrows = borrows;
+            copy.failures = failures;
+            copy.retries = retries;
+            copy.timeouts = timeouts;
+            copy.breakerTrips = breakerTrips;
+            copy.latencySumMicros = latencySumMicros;
+            copy.latencyMaxMicros = latencyMaxMicros;
+            return copy;
+        }
+
+        MonitorSnapshot toSnapshot(String dsName, long startMillis, long endMillis) {
+            return new MonitorSnapshot(dsName, startMillis, endMillis, borrows, failures,
+                retries, timeouts, breakerTrips, latency.clone(), latencySumMicros,
+                latencyMaxMicros, Collections.<SqlStats> emptyList());
+        }
+    }
+
+    private static final class Interval {
+
+        final long               startMillis  = System.currentTimeMillis();
+        final LongAdder          borrows      = new LongAdder();
+        final LongAdder          failures     = new LongAdder();
+        final LongAdder          retries      = new LongAdder();
+        final LongAdder          timeouts     = new LongAdder();
+        final LongAdder          breakerTrips = new LongAdder();
+        final LatencyHistogram   latency      = new LatencyHistogram();
+        final SqlStatsAggregator sqlStats;
+
+        Interval(int sqlStatsCapacity) {
+            this.sqlStats = new SqlStatsAggregator(sqlStatsCapacity);
+        }
+
+        MonitorSnapshot toSnapshot(String dsName, long endMillis) {
+            return new MonitorSnapshot(dsName, startMillis, endMillis, borrows.sum(),
+                failures.sum(), retries.sum(), timeouts.sum(), breakerTrips.sum(),
+                latency.getCounts(), latency.getSumMicros(), latency.getMaxMicros(),
+                sqlStats.snapshot());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.isumi.monitor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Fixed size latency histogram: bucket <code>i</code> counts values in
+ * <code>[2^i, 2^(i+1))</code> microseconds (bucket 0 also takes everything below 1us, the
+ * last one everything above). Memory doesn't grow with the number of samples and recording
+ * is two adds and a max, without contention between threads.
+ */
+public class LatencyHistogram {
+
+    public static final int                 BUCKETS = 32;
+
+    private static final LongBinaryOperator MAX     = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private final LongAdder[]               counts  = new LongAdder[BUCKETS];
+    private final LongAdder                 sum     = new LongAdder();
+    private final LongAccumulator           max     = new LongAccumulator(MAX, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts[bucketOf(micros)].increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    static int bucketOf(long micros) {
+        return micros <= 1L ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return upper bound in microseconds of the values counted in <code>bucket</code>
+     */
+    public static long upperBoundMicros(int bucket) {
+        return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (2L << bucket) - 1;
+    }
+
+    long[] getCounts() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts[i].sum();
+        }
+        return result;
+    }
+
+    long getSumMicros() {
+        return sum.sum();
+    }
+
+    long getMaxMicros() {
+        return max.get();
+    }
+}
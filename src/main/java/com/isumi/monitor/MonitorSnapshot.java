@@ -0,0 +1,139 @@
+package com.isumi.monitor;
+
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Counters of one data source node over one monitoring interval.
+ */
+public class MonitorSnapshot {
+
+    private final String         dsName;
+    private final long           startMillis;
+    private final long           endMillis;
+    private final long           borrows;
+    private final long           failures;
+    private final long           retries;
+    private final long           timeouts;
+    private final long           breakerTrips;
+    private final long[]         latencyCounts;
+    private final long           latencySumMicros;
+    private final long           latencyMaxMicros;
+    private final List<SqlStats> statements;
+
+    MonitorSnapshot(String dsName, long startMillis, long endMillis, long borrows, long failures,
+                    long retries, long timeouts, long breakerTrips, long[] latencyCounts,
+                    long latencySumMicros, long latencyMaxMicros, List<SqlStats> statements) {
+        this.dsName = dsName;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.borrows = borrows;
+        this.failures = failures;
+        this.retries = retries;
+        this.timeouts = timeouts;
+        this.breakerTrips = breakerTrips;
+        this.latencyCounts = latencyCounts;
+        this.latencySumMicros = latencySumMicros;
+        this.latencyMaxMicros = latencyMaxMicros;
+        this.statements = Collections.unmodifiableList(statements);
+    }
+
+    public boolean isEmpty() {
+        return borrows == 0 && failures == 0 && retries == 0 && timeouts == 0
+               && breakerTrips == 0 && statements.isEmpty();
+    }
+
+    /**
+     * @return upper bound of the bucket holding the given percentile of the acquisition times,
+     *         0 if nothing was borrowed
+     */
+    public long getLatencyPercentileMicros(double percentile) {
+        long total = 0;
+        for (long count : latencyCounts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100D, Math.max(0D, percentile)) / 100D);
+        long seen = 0;
+        for (int i = 0; i < latencyCounts.length; i++) {
+            seen += latencyCounts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(latencyMaxMicros, LatencyHistogram.upperBoundMicros(i));
+            }
+        }
+        return latencyMaxMicros;
+    }
+
+    public long getLatencyMeanMicros() {
+        return borrows == 0 ? 0L : latencySumMicros / borrows;
+    }
+
+    public String getDsName() {
+        return dsName;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    public long getBorrows() {
+        return borrows;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getBreakerTrips() {
+        return breakerTrips;
+    }
+
+    /**
+     * @return acquisition time counts per bucket, see {@link LatencyHistogram}
+     */
+    public long[] getLatencyCounts() {
+        return latencyCounts.clone();
+    }
+
+    public long getLatencySumMicros() {
+        return latencySumMicros;
+    }
+
+    public long getLatencyMaxMicros() {
+        return latencyMaxMicros;
+    }
+
+    /**
+     * @return statistics per statement fingerprint, by descending total time
+     */
+    public List<SqlStats> getStatements() {
+        return statements;
+    }
+
+    @Override
+    public String toString() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        return dsName + " [" + format.format(new Date(startMillis)) + " - "
+               + format.format(new Date(endMillis)) + "] borrows=" + borrows + ",failures="
+               + failures + ",retries=" + retries + ",timeouts=" + timeouts + ",breakerTrips="
+               + breakerTrips + ",latency(us) mean=" + getLatencyMeanMicros() + ",p50="
+               + getLatencyPercentileMicros(50) + ",p99=" + getLatencyPercentileMicros(99)
+               + ",max=" + latencyMaxMicros;
+    }
+}
@@ -0,0 +1,175 @@
+package com.isumi.monitor;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.isumi.util.RollingFileWriter;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.MultiThreadedClaimStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands slow statements from the executing threads to one background thread through a
+ * Disruptor ring of pre-allocated events.
+ * <p>Publishing copies a few references and numbers into a free slot and never waits: when
+ * the ring is full the statement is counted as dropped instead. The background thread
+ * reads the executing thread's name, formats each event, logs it to the
+ * <code>com.isumi.monitor.SlowSqlRecorder</code> logger and appends it to the rolling file,
+ * if one is configured.
+ */
+public class SlowSqlRecorder {
+
+    private static final Logger                     LOGGER  = LoggerFactory
+        .getLogger(SlowSqlRecorder.class);
+
+    private final RingBuffer<SlowSqlEvent>          ringBuffer;
+    private final BatchEventProcessor<SlowSqlEvent> processor;
+    private final Thread                            thread;
+    private final RollingFileWriter                 file;
+    private final LongAdder                         dropped = new LongAdder();
+
+    static final class SlowSqlEvent {
+
+        String  dsName;
+        String  sql;
+        Thread  thread;
+        long    startMillis;
+        long    elapsedNanos;
+        long    rows;
+        boolean failed;
+    }
+
+    private static final EventFactory<SlowSqlEvent> FACTORY = new EventFactory<SlowSqlEvent>() {
+        @Override
+        public SlowSqlEvent newInstance() {
+            return new SlowSqlEvent();
+        }
+    };
+
+    /**
+     * @param ringSize number of pending slow statements, rounded up to a power of 2
+     * @param file     rolling file to append to, or null to only log
+     */
+    public SlowSqlRecorder(String name, int ringSize, RollingFileWriter file) {
+        this.file = file;
+        this.ringBuffer = new RingBuffer<SlowSqlEvent>(FACTORY, new MultiThreadedClaimStrategy(
+            Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1), new SleepingWaitStrategy());
+        this.processor = new BatchEventProcessor<SlowSqlEvent>(ringBuffer,
+            ringBuffer.newBarrier(), new Writer());
+        ringBuffer.setGatingSequences(processor.getSequence());
+        this.thread = new Thread(processor, "-" + name + "-slow-sql-recorder");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return false if the ring was full and the statement dropped
+     */
+    public boolean publish(String dsName, String sql, long startMillis, long elapsedNanos,
+                           long rows, boolean failed) {
+        long sequence;
+        try {
+            sequence = ringBuffer.tryNext(1);
+        } catch (InsufficientCapacityException e) {
+            dropped.increment();
+            return false;
+        }
+        SlowSqlEvent event = ringBuffer.get(sequence);
+        event.dsName = dsName;
+        event.sql = sql;
+        event.thread = Thread.currentThread();
+        event.startMillis = startMillis;
+        event.elapsedNanos = elapsedNanos;
+        event.rows = rows;
+        event.failed = failed;
+        ringBuffer.publish(sequence);
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes what is still in the ring (waiting at most a second) and stops the thread.
+     */
+    public void close() {
+        long deadline = System.currentTimeMillis() + 1000L;
+        while (processor.getSequence().get() < ringBuffer.getCursor()
+               && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        processor.halt();
+        try {
+            thread.join(1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                LOGGER.warn("Close " + file.getFile() + " fail", e);
+            }
+        }
+    }
+
+    private final class Writer implements EventHandler<SlowSqlEvent> {
+
+        private final SimpleDateFormat format  = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        private final StringBuilder    builder = new StringBuilder(256);
+        private long                   reportedDrops;
+
+        @Override
+        public void onEvent(SlowSqlEvent event, long sequence, boolean endOfBatch) {
+            builder.setLength(0);
+            builder.append(format.format(new Date(event.startMillis))).append(" [")
+                .append(event.dsName).append("] [").append(event.thread.getName()).append("] ")
+                .append(TimeUnit.NANOSECONDS.toMillis(event.elapsedNanos)).append("ms");
+            if (event.rows >= 0) {
+                builder.append(" rows=").append(event.rows);
+            }
+            if (event.failed) {
+                builder.append(" FAILED");
+            }
+            builder.append(' ').append(event.sql);
+            // don't keep the statement text or the thread alive until the slot is reused
+            event.sql = null;
+            event.thread = null;
+            String line = builder.toString();
+            LOGGER.warn(line);
+            if (file != null) {
+                try {
+                    file.writeLine(line);
+                    if (endOfBatch) {
+                        file.flush();
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Write " + file.getFile() + " fail", e);
+                }
+            }
+            if (endOfBatch) {
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    LOGGER.warn((drops - reportedDrops)
+                                + " slow statements dropped, the recorder can't keep up");
+                    reportedDrops = drops;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.isumi.monitor;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Normalizes a statement so that executions differing only in literal values share one
+ * fingerprint: string (<code>'...'</code> and <code>"..."</code>) and number literals become
+ * <code>?</code>, placeholder lists of <code>in (...)</code> and <code>values (...)</code>
+ * collapse to one (<code>in (?, ?, ?)</code> becomes <code>in (?)</code>, while
+ * <code>limit ?, ?</code> is kept), comments are dropped, whitespace is collapsed and
+ * everything outside literals and <code>`quoted`</code> identifiers is lower-cased.
+ * <p>Fingerprints of recently seen SQL texts are cached, prepared statements pass the same
+ * text on every execution. The cache holds two generations of at most GENERATION_SIZE texts
+ * of at most MAX_LENGTH characters: when the young one is full it becomes the old one and
+ * the previous old one is dropped, a text found in the old generation moves back to the
+ * young one. Longer texts, typically statements with inlined values, are never cached.
+ */
+public final class SqlFingerprint {
+
+    static final int                                      MAX_LENGTH      = 1024;
+    static final int                                      GENERATION_SIZE = 2048;
+
+    private static volatile ConcurrentMap<String, String> young           = new ConcurrentHashMap<String, String>();
+    private static volatile ConcurrentMap<String, String> old             = new ConcurrentHashMap<String, String>();
+
+    private SqlFingerprint() {
+    }
+
+    public static String of(String sql) {
+        if (sql == null) {
+            return "<unknown>";
+        }
+        if (sql.length() > MAX_LENGTH) {
+            return normalize(sql);
+        }
+        ConcurrentMap<String, String> cache = young;
+        String fingerprint = cache.get(sql);
+        if (fingerprint == null) {
+            fingerprint = old.get(sql);
+            if (fingerprint == null) {
+                fingerprint = normalize(sql);
+            }
+            cache.put(sql, fingerprint);
+            if (cache.size() >= GENERATION_SIZE) {
+                rotate(cache);
+            }
+        }
+        return fingerprint;
+    }
+
+    private static synchronized void rotate(ConcurrentMap<String, String> full) {
+        if (young == full) {
+            old = full;
+            young = new ConcurrentHashMap<String, String>();
+        }
+    }
+
+    static String normalize(String sql) {
+        int length = sql.length();
+        StringBuilder out = new StringBuilder(Math.min(length, MAX_LENGTH));
+        // depth of parentheses, and which ones are an in (...) or values (...) list
+        int depth = 0;
+        BitSet lists = new BitSet();
+        boolean closedList = false;
+        int i = 0;
+        while (i < length && out.length() < MAX_LENGTH) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+                    out.append(' ');
+                }
+                i++;
+            } else if (c == '\'' || c == '"') {// string literal, doubled quote and \ escape it
+                i = skipQuoted(sql, i, c, true);
+                placeholder(out, lists.get(depth));
+            } else if (c == '`') {// quoted identifier, kept as is
+                int end = skipQuoted(sql, i, c, false);
+                out.append(sql, i, Math.min(end, i + MAX_LENGTH - out.length()));
+                i = end;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (Character.isDigit(c) && !inIdentifier(out)) {
+                while (i < length) {
+                    char d = sql.charAt(i);
+                    if (Character.isLetterOrDigit(d) || d == '.') {// 12, 1.5, 0x1F, 1e10
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                placeholder(out, lists.get(depth));
+            } else if (c == '?') {
+                placeholder(out, lists.get(depth));
+                i++;
+            } else if (c == '(') {
+                depth++;
+                lists.set(depth, opensList(out, closedList));
+                out.append(c);
+                i++;
+            } else if (c == ')') {
+                closedList = lists.get(depth);
+                lists.clear(depth);
+                depth = Math.max(0, depth - 1);
+                out.append(c);
+                i++;
+            } else {
+                out.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        int end = out.length();
+        while (end > 0 && out.charAt(end - 1) == ' ') {
+            end--;
+        }
+        out.setLength(end);
+        return out.toString();
+    }
+
+    /**
+     * @return index just after the closing quote of the token starting at <code>start</code>
+     */
+    private static int skipQuoted(String sql, int start, char quote, boolean backslashEscapes) {
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char d = sql.charAt(i++);
+            if (d == '\\' && backslashEscapes) {
+                i++;
+            } else if (d == quote) {
+                if (i < length && sql.charAt(i) == quote) {
+                    i++;
+                } else {
+                    break;
+                }
+            }
+        }
+        return Math.min(i, length);
+    }
+
+    private static boolean inIdentifier(StringBuilder out) {
+        if (out.length() == 0) {
+            return false;
+        }
+        char last = out.charAt(out.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+
+    /**
+     * @return whether a parenthesis opened now starts a list of values: it follows
+     *         <code>in</code> or <code>values</code>, or the comma after a values row
+     */
+    private static boolean opensList(StringBuilder out, boolean closedList) {
+        int j = out.length() - 1;
+        while (j >= 0 && out.charAt(j) == ' ') {
+            j--;
+        }
+        if (j >= 0 && out.charAt(j) == ',') {
+            do {
+                j--;
+            } while (j >= 0 && out.charAt(j) == ' ');
+            return closedList && j >= 0 && out.charAt(j) == ')';
+        }
+        return endsWithWord(out, j + 1, "in") || endsWithWord(out, j + 1, "values")
+               || endsWithWord(out, j + 1, "value");
+    }
+
+    private static boolean endsWithWord(StringBuilder out, int end, String word) {
+        int start = end - word.length();
+        if (start < 0 || !word.contentEquals(out.subSequence(start, end))) {
+            return false;
+        }
+        if (start == 0) {
+            return true;
+        }
+        char before = out.charAt(start - 1);
+        return !(Character.isLetterOrDigit(before) || before == '_' || before == '$'
+                 || before == '`' || before == '.');
+    }
+
+    /**
+     * Appends <code>?</code>, unless it continues a list of placeholders in a list context.
+     */
+    private static void placeholder(StringBuilder out, boolean inList) {
+        if (inList) {
+            int j = out.length() - 1;
+            while (j >= 0 && out.charAt(j) == ' ') {
+                j--;
+            }
+            if (j >= 0 && out.charAt(j) == ',') {
+                int k = j - 1;
+                while (k >= 0 && out.charAt(k) == ' ') {
+                    k--;
+                }
+                if (k >= 0 && out.charAt(k) == '?') {
+                    out.setLength(k + 1);
+                    return;
+                }
+            }
+        }
+        out.append('?');
+    }
+}
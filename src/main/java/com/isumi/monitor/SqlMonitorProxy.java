@@ -0,0 +1,166 @@
+package com.isumi.monitor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * Wraps a pooled connection so that every execute call of the statements it creates is
+ * timed and reported to a {@link Listener}.
+ * <p>The SQL reported is the one passed to execute, else the prepared SQL, else the first
+ * SQL added to the batch.
+ */
+public final class SqlMonitorProxy {
+
+    public interface Listener {
+
+        /**
+         * Called on the executing thread, keep it short.
+         *
+         * @param rows rows updated when the driver said, -1 otherwise
+         */
+        void onExecute(String sql, long startMillis, long elapsedNanos, long rows,
+                       boolean failed);
+    }
+
+    private SqlMonitorProxy() {
+    }
+
+    public static Connection wrap(Connection connection, Listener listener) {
+        return (Connection) Proxy.newProxyInstance(SqlMonitorProxy.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, new ConnectionHandler(connection, listener));
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args)
+                                                                                   throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * @return the answer to unwrap/isWrapperFor/equals/hashCode, or null to delegate
+     */
+    private static Object wrapperMethod(Object proxy, Object target, String name, Object[] args) {
+        if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+            return target;
+        } else if ("isWrapperFor".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+            return Boolean.TRUE;
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        return null;
+    }
+
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final Listener   listener;
+
+        ConnectionHandler(Connection target, Listener listener) {
+            this.target = target;
+            this.listener = listener;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Object answer = wrapperMethod(proxy, target, name, args);
+            if (answer != null) {
+                return answer;
+            }
+            Object result = invokeTarget(target, method, args);
+            Class<?> type;
+            if ("createStatement".equals(name)) {
+                type = Statement.class;
+            } else if ("prepareStatement".equals(name)) {
+                type = PreparedStatement.class;
+            } else if ("prepareCall".equals(name)) {
+                type = CallableStatement.class;
+            } else {
+                return result;
+            }
+            if (result == null) {
+                return null;
+            }
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+                : null;
+            return Proxy.newProxyInstance(SqlMonitorProxy.class.getClassLoader(),
+                new Class<?>[] { type }, new StatementHandler((Statement) result,
+                    (Connection) proxy, sql, listener));
+        }
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement  target;
+        private final Connection connection;
+        private final String     sql;
+        private final Listener   listener;
+        private String           batchSql;
+
+        StatementHandler(Statement target, Connection connection, String sql, Listener listener) {
+            this.target = target;
+            this.connection = connection;
+            this.sql = sql;
+            this.listener = listener;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            Object answer = wrapperMethod(proxy, target, name, args);
+            if (answer != null) {
+                return answer;
+            }
+            if ("getConnection".equals(name)) {
+                return connection;
+            }
+            if (!name.startsWith("execute")) {
+                if ("addBatch".equals(name) && args != null && batchSql == null) {
+                    batchSql = (String) args[0];
+                } else if ("clearBatch".equals(name)) {
+                    batchSql = null;
+                }
+                return invokeTarget(target, method, args);
+            }
+
+            String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+                : sql != null ? sql : batchSql;
+            long startMillis = System.currentTimeMillis();
+            long start = System.nanoTime();
+            Object result = null;
+            boolean failed = true;
+            try {
+                result = invokeTarget(target, method, args);
+                failed = false;
+                return result;
+            } finally {
+                long rows = -1L;
+                if (result instanceof Integer) {
+                    rows = ((Integer) result).intValue();
+                } else if (result instanceof Long) {
+                    rows = ((Long) result).longValue();
+                } else if (result instanceof int[]) {
+                    rows = 0L;
+                    for (int count : (int[]) result) {
+                        rows += Math.max(0, count);
+                    }
+                }
+                if ("executeBatch".equals(name) || "executeLargeBatch".equals(name)) {
+                    batchSql = null;
+                }
+                listener.onExecute(text, startMillis, System.nanoTime() - start, rows, failed);
+            }
+        }
+    }
+}
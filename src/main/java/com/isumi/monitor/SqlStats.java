@@ -0,0 +1,68 @@
+package com.isumi.monitor;
+
+/**
+ * Statistics of one statement fingerprint over one monitoring interval, see
+ * {@link SqlStatsAggregator}.
+ */
+public class SqlStats {
+
+    private final String fingerprint;
+    private final long   calls;
+    private final long   overestimate;
+    private final long   totalMicros;
+    private final long   maxMicros;
+    private final long   rows;
+    private final long   errors;
+
+    SqlStats(String fingerprint, long calls, long overestimate, long totalMicros, long maxMicros,
+             long rows, long errors) {
+        this.fingerprint = fingerprint;
+        this.calls = calls;
+        this.overestimate = overestimate;
+        this.totalMicros = totalMicros;
+        this.maxMicros = maxMicros;
+        this.rows = rows;
+        this.errors = errors;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return number of executions, over-estimated by at most {@link #getOverestimate()}
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getOverestimate() {
+        return overestimate;
+    }
+
+    /**
+     * @return total execution time, only of the executions seen since tracking started
+     */
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return "calls=" + calls + (overestimate > 0 ? "(-" + overestimate + ")" : "") + ",total="
+               + totalMicros / 1000 + "ms,max=" + maxMicros / 1000 + "ms,rows=" + rows
+               + ",errors=" + errors + " " + fingerprint;
+    }
+}
@@ -0,0 +1,146 @@
+package com.isumi.monitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Per fingerprint statement statistics in bounded memory, using the Space-Saving algorithm:
+ * at most <code>capacity</code> fingerprints are tracked; a new one replaces the one with the
+ * fewest calls and inherits its count, recorded as the possible over-estimation. Frequent
+ * statements are therefore always tracked, whatever the number of distinct statements.
+ * <p>Tracked statements are updated without locking; only adding a new fingerprint takes the
+ * lock. Once full, one scan sorts out the capacity / 8 least frequent fingerprints and the
+ * following admissions evict them in that order, so the scan runs once per capacity / 8
+ * admissions instead of on every one; the evicted fingerprint is the least frequent one as
+ * of the last scan.
+ */
+public class SqlStatsAggregator {
+
+    private static final LongBinaryOperator          MAX              = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private static final Comparator<Counter>         BY_SCANNED_CALLS = new Comparator<Counter>() {
+        @Override
+        public int compare(Counter o1, Counter o2) {
+            return o1.scannedCalls < o2.scannedCalls ? -1
+                : o1.scannedCalls == o2.scannedCalls ? 0 : 1;
+        }
+    };
+
+    private final int                                capacity;
+    private final int                                evictionBatch;
+    private final ConcurrentHashMap<String, Counter> counters;
+    private final Object                             lock             = new Object();
+    /**
+     * Eviction order found by the last scan, guarded by lock.
+     */
+    private final ArrayDeque<Counter>                victims          = new ArrayDeque<Counter>();
+
+    public SqlStatsAggregator(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.evictionBatch = Math.max(1, this.capacity / 8);
+        this.counters = new ConcurrentHashMap<String, Counter>(this.capacity * 2);
+    }
+
+    public void record(String sql, long elapsedNanos, long rows, boolean failed) {
+        String fingerprint = SqlFingerprint.of(sql);
+        Counter counter = counters.get(fingerprint);
+        if (counter == null) {
+            counter = admit(fingerprint);
+        }
+        counter.calls.increment();
+        counter.totalNanos.add(elapsedNanos);
+        counter.maxNanos.accumulate(elapsedNanos);
+        if (rows > 0) {
+            counter.rows.add(rows);
+        }
+        if (failed) {
+            counter.errors.increment();
+        }
+    }
+
+    private Counter admit(String fingerprint) {
+        synchronized (lock) {
+            Counter counter = counters.get(fingerprint);
+            if (counter != null) {
+                return counter;
+            }
+            long inherited = 0L;
+            if (counters.size() >= capacity) {
+                if (victims.isEmpty()) {
+                    scanVictims();
+                }
+                Counter min = victims.poll();
+                counters.remove(min.fingerprint);
+                inherited = min.calls.sum();
+            }
+            counter = new Counter(fingerprint, inherited);
+            counter.calls.add(inherited);
+            counters.put(fingerprint, counter);
+            return counter;
+        }
+    }
+
+    private void scanVictims() {
+        List<Counter> all = new ArrayList<Counter>(counters.values());
+        for (Counter counter : all) {
+            counter.scannedCalls = counter.calls.sum();
+        }
+        Collections.sort(all, BY_SCANNED_CALLS);
+        victims.addAll(all.subList(0, Math.min(evictionBatch, all.size())));
+    }
+
+    /**
+     * @return the tracked statements, by descending total time
+     */
+    public List<SqlStats> snapshot() {
+        List<SqlStats> result = new ArrayList<SqlStats>(counters.size());
+        for (Counter counter : counters.values()) {
+            result.add(new SqlStats(counter.fingerprint, counter.calls.sum(),
+                counter.overestimate, TimeUnit.NANOSECONDS.toMicros(counter.totalNanos.sum()),
+                TimeUnit.NANOSECONDS.toMicros(counter.maxNanos.get()), counter.rows.sum(),
+                counter.errors.sum()));
+        }
+        Collections.sort(result, new Comparator<SqlStats>() {
+            @Override
+            public int compare(SqlStats o1, SqlStats o2) {
+                return o1.getTotalMicros() < o2.getTotalMicros() ? 1
+                    : o1.getTotalMicros() == o2.getTotalMicros() ? 0 : -1;
+            }
+        });
+        return result;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static final class Counter {
+
+        final String          fingerprint;
+        final long            overestimate;
+        final LongAdder       calls      = new LongAdder();
+        final LongAdder       totalNanos = new LongAdder();
+        final LongAccumulator maxNanos   = new LongAccumulator(MAX, 0L);
+        final LongAdder       rows       = new LongAdder();
+        final LongAdder       errors     = new LongAdder();
+        long                  scannedCalls;
+
+        Counter(String fingerprint, long overestimate) {
+            this.fingerprint = fingerprint;
+            this.overestimate = overestimate;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.isumi.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Connection proxy that reports to the {@link LookupKeySelector} once, when the borrower
+ * closes the connection.
+ */
+public class ConnectionReleaseHandler implements InvocationHandler {
+
+    private final Connection        target;
+    private final Object            lookupKey;
+    private final LookupKeySelector selector;
+    private final long              acquiredNanos;
+    private final AtomicBoolean     released = new AtomicBoolean(false);
+
+    private ConnectionReleaseHandler(Connection target, Object lookupKey,
+                                     LookupKeySelector selector) {
+        this.target = target;
+        this.lookupKey = lookupKey;
+        this.selector = selector;
+        this.acquiredNanos = System.nanoTime();
+    }
+
+    public static Connection wrap(Connection target, Object lookupKey,
+                                  LookupKeySelector selector) {
+        return (Connection) Proxy.newProxyInstance(ConnectionReleaseHandler.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new ConnectionReleaseHandler(target, lookupKey, selector));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("close".equals(name)) {
+            if (released.compareAndSet(false, true)) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                } finally {
+                    selector.onRelease(lookupKey, System.nanoTime() - acquiredNanos);
+                }
+            }
+            return null;
+        } else if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+            return target;
+        } else if ("isWrapperFor".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+            return Boolean.TRUE;
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.isumi.routing;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the last {@link #SAMPLES} connection acquisition times and derives the hedge delay
+ * from a percentile of them: a borrow that is slower than, say, 95% of recent borrows is
+ * hedged on another replica.
+ * <p>Recording is one increment and one store. The percentile is recomputed from a copy of
+ * the samples at most every {@link #REFRESH_MILLIS} by whichever caller notices it is
+ * stale, everybody else reads the cached value.
+ */
+public class HedgeDelayEstimator {
+
+    public static final int   SAMPLES        = 1024;
+    public static final int   MIN_SAMPLES    = 64;
+    public static final long  REFRESH_MILLIS = 1000L;
+
+    private final AtomicLongArray samples    = new AtomicLongArray(SAMPLES);
+    private final AtomicLong      count      = new AtomicLong();
+    private final AtomicBoolean   refreshing = new AtomicBoolean(false);
+    private volatile long         delayNanos = -1L;
+    private volatile long         refreshedAt;
+
+    private final double          percentile;
+    private final long            minDelayNanos;
+    private final long            maxDelayNanos;
+
+    /**
+     * @param percentile     percentile of recent acquisition times, e.g. 95
+     * @param minDelayMillis lower bound of the delay, avoids hedging every borrow when the
+     *                       pool is fast
+     * @param maxDelayMillis upper bound of the delay
+     */
+    public HedgeDelayEstimator(double percentile, long minDelayMillis, long maxDelayMillis) {
+        this.percentile = Math.min(100D, Math.max(1D, percentile));
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, minDelayMillis));
+        this.maxDelayNanos = Math.max(minDelayNanos,
+            TimeUnit.MILLISECONDS.toNanos(maxDelayMillis));
+    }
+
+    public void record(long acquireNanos) {
+        samples.set((int) (count.getAndIncrement() % SAMPLES), acquireNanos);
+    }
+
+    /**
+     * @return the current hedge delay in nanoseconds, or -1 while too few borrows were seen
+     *         to tell what is slow
+     */
+    public long getDelayNanos() {
+        long now = System.currentTimeMillis();
+        boolean stale = now - refreshedAt >= REFRESH_MILLIS
+                        || delayNanos < 0 && count.get() >= MIN_SAMPLES;
+        if (stale && refreshing.compareAndSet(false, true)) {
+            try {
+                refresh();
+                refreshedAt = now;
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return delayNanos;
+    }
+
+    private void refresh() {
+        int n = (int) Math.min(count.get(), SAMPLES);
+        if (n < MIN_SAMPLES) {
+            delayNanos = -1L;
+            return;
+        }
+        long[] copy = new long[n];
+        for (int i = 0; i < n; i++) {
+            copy[i] = samples.get(i);
+        }
+        Arrays.sort(copy);
+        long value = copy[Math.min(n - 1, (int) Math.ceil(n * percentile / 100D) - 1)];
+        delayNanos = Math.min(maxDelayNanos, Math.max(minDelayNanos, value));
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    @Override
+    public String toString() {
+        return "HedgeDelayEstimator[p" + percentile + ", delay=" + delayNanos + "ns]";
+    }
+}
@@ -0,0 +1,168 @@
+package com.isumi.routing;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks slaves by power-of-two-choices on a decaying moving average of acquisition latency
+ * plus statement latency (elapsed time of each statement run on the slave), so slow but
+ * alive replicas automatically get less traffic. Time the application holds a connection
+ * between statements is not counted.
+ * <p>The average of a slave that receives no traffic decays towards zero, so a replica
+ * that got slow and then recovered is probed again instead of being starved forever.
+ */
+public class LatencyWeightedLookupKeySelector implements LookupKeySelector {
+
+    private long decayMillis          = 10000;
+    private long failurePenaltyMillis = 1000;
+
+    private final ConcurrentMap<Object, KeyLatency> latencies = new ConcurrentHashMap<Object, KeyLatency>();
+
+    /**
+     * Moving average whose weight halves roughly every 0.7 * decay time. Updates are racy on
+     * purpose: a concurrent update may lose a sample, which is harmless for a routing hint
+     * and keeps the borrow path free of locks.
+     */
+    static final class DecayingAverage {
+
+        private volatile double value;
+        private volatile long   stampNanos;
+
+        void add(double sample, long nowNanos, double decayNanos) {
+            long last = stampNanos;
+            if (last == 0L) {
+                value = sample;
+            } else {
+                double w = Math.exp(-Math.max(0L, nowNanos - last) / decayNanos);
+                value = value * w + sample * (1D - w);
+            }
+            stampNanos = nowNanos == 0L ? 1L : nowNanos;
+        }
+
+        double get(long nowNanos, double decayNanos) {
+            long last = stampNanos;
+            if (last == 0L) {
+                return 0D;
+            }
+            return value * Math.exp(-Math.max(0L, nowNanos - last) / decayNanos);
+        }
+    }
+
+    static final class KeyLatency {
+        final DecayingAverage acquire = new DecayingAverage();
+        final DecayingAverage query   = new DecayingAverage();
+    }
+
+    @Override
+    public Object select(List<Object> lookupKeys) {
+        int size = lookupKeys.size();
+        if (size == 0) {
+            return null;
+        }
+        try {
+            if (size == 1) {
+                return lookupKeys.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(size);
+            int b = random.nextInt(size - 1);
+            if (b >= a) {
+                b++;
+            }
+            Object keyA = lookupKeys.get(a);
+            Object keyB = lookupKeys.get(b);
+            long now = System.nanoTime();
+            return score(keyB, now) < score(keyA, now) ? keyB : keyA;
+        } catch (IndexOutOfBoundsException e) {
+            // key ejected concurrently
+            return select(lookupKeys);
+        }
+    }
+
+    /**
+     * Current latency estimate of <code>lookupKey</code> in nanoseconds.
+     */
+    public double score(Object lookupKey, long nowNanos) {
+        KeyLatency latency = latencies.get(lookupKey);
+        if (latency == null) {
+            return 0D;
+        }
+        double decayNanos = decayNanos();
+        return latency.acquire.get(nowNanos, decayNanos) + latency.query.get(nowNanos, decayNanos);
+    }
+
+    @Override
+    public void onAcquire(Object lookupKey, long acquireNanos) {
+        latency(lookupKey).acquire.add(acquireNanos, System.nanoTime(), decayNanos());
+    }
+
+    @Override
+    public void onAcquireFailure(Object lookupKey) {
+        latency(lookupKey).acquire.add(TimeUnit.MILLISECONDS.toNanos(failurePenaltyMillis),
+            System.nanoTime(), decayNanos());
+    }
+
+    @Override
+    public void onRelease(Object lookupKey, long holdNanos) {
+    }
+
+    @Override
+    public boolean isReleaseTracked() {
+        return false;
+    }
+
+    @Override
+    public void onStatement(Object lookupKey, long elapsedNanos) {
+        latency(lookupKey).query.add(elapsedNanos, System.nanoTime(), decayNanos());
+    }
+
+    @Override
+    public boolean isStatementTracked() {
+        return true;
+    }
+
+    private KeyLatency latency(Object lookupKey) {
+        KeyLatency latency = latencies.get(lookupKey);
+        if (latency == null) {
+            latency = new KeyLatency();
+            KeyLatency exist = latencies.putIfAbsent(lookupKey, latency);
+            if (exist != null) {
+                latency = exist;
+            }
+        }
+        return latency;
+    }
+
+    private double decayNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(decayMillis);
+    }
+
+    public long getDecayMillis() {
+        return decayMillis;
+    }
+
+    /**
+     * Time constant of the moving average, default 10000ms.
+     */
+    public void setDecayMillis(long decayMillis) {
+        if (decayMillis > 0) {
+            this.decayMillis = decayMillis;
+        }
+    }
+
+    public long getFailurePenaltyMillis() {
+        return failurePenaltyMillis;
+    }
+
+    /**
+     * Latency sample recorded for a failed borrow, default 1000ms.
+     */
+    public void setFailurePenaltyMillis(long failurePenaltyMillis) {
+        if (failurePenaltyMillis >= 0) {
+            this.failurePenaltyMillis = failurePenaltyMillis;
+        }
+    }
+}
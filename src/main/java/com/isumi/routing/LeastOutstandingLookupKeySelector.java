@@ -0,0 +1,90 @@
+package com.isumi.routing;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the next borrow to the slave with fewer connections currently checked out, choosing
+ * between two random candidates (power-of-two-choices) so that bursts do not all herd onto
+ * the same momentarily idle replica.
+ */
+public class LeastOutstandingLookupKeySelector implements LookupKeySelector {
+
+    private final ConcurrentMap<Object, AtomicInteger> outstanding = new ConcurrentHashMap<Object, AtomicInteger>();
+
+    @Override
+    public Object select(List<Object> lookupKeys) {
+        int size = lookupKeys.size();
+        if (size == 0) {
+            return null;
+        }
+        try {
+            if (size == 1) {
+                return lookupKeys.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(size);
+            int b = random.nextInt(size - 1);
+            if (b >= a) {
+                b++;
+            }
+            Object keyA = lookupKeys.get(a);
+            Object keyB = lookupKeys.get(b);
+            return getOutstanding(keyB) < getOutstanding(keyA) ? keyB : keyA;
+        } catch (IndexOutOfBoundsException e) {
+            // key ejected concurrently
+            return select(lookupKeys);
+        }
+    }
+
+    /**
+     * Number of connections borrowed from <code>lookupKey</code> and not closed yet.
+     */
+    public int getOutstanding(Object lookupKey) {
+        AtomicInteger count = outstanding.get(lookupKey);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void onAcquire(Object lookupKey, long acquireNanos) {
+        counter(lookupKey).incrementAndGet();
+    }
+
+    @Override
+    public void onAcquireFailure(Object lookupKey) {
+    }
+
+    @Override
+    public void onRelease(Object lookupKey, long holdNanos) {
+        counter(lookupKey).decrementAndGet();
+    }
+
+    @Override
+    public boolean isReleaseTracked() {
+        return true;
+    }
+
+    @Override
+    public void onStatement(Object lookupKey, long elapsedNanos) {
+    }
+
+    @Override
+    public boolean isStatementTracked() {
+        return false;
+    }
+
+    private AtomicInteger counter(Object lookupKey) {
+        AtomicInteger count = outstanding.get(lookupKey);
+        if (count == null) {
+            count = new AtomicInteger();
+            AtomicInteger exist = outstanding.putIfAbsent(lookupKey, count);
+            if (exist != null) {
+                count = exist;
+            }
+        }
+        return count;
+    }
+}
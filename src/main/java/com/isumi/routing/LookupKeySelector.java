@@ -0,0 +1,50 @@
+package com.isumi.routing;
+
+import java.util.List;
+
+/**
+ * Strategy used by {@link com.isumi.DynamicRoutingDataSource} to pick the slave lookup key
+ * for the next read, and to learn from the outcome of each borrow.
+ */
+public interface LookupKeySelector {
+
+    /**
+     * Pick one of the currently admitted lookup keys.
+     *
+     * @param lookupKeys admitted keys, never modified by the selector
+     * @return the chosen key, or <code>null</code> if the list is empty
+     */
+    Object select(List<Object> lookupKeys);
+
+    /**
+     * A connection was obtained from the target of <code>lookupKey</code>.
+     */
+    void onAcquire(Object lookupKey, long acquireNanos);
+
+    /**
+     * Obtaining a connection from the target of <code>lookupKey</code> failed.
+     */
+    void onAcquireFailure(Object lookupKey);
+
+    /**
+     * A connection obtained from <code>lookupKey</code> was closed after being held for
+     * <code>holdNanos</code>. Only called when {@link #isReleaseTracked()} is true.
+     */
+    void onRelease(Object lookupKey, long holdNanos);
+
+    /**
+     * Whether connections must be wrapped so that {@link #onRelease} gets called.
+     */
+    boolean isReleaseTracked();
+
+    /**
+     * A statement ran for <code>elapsedNanos</code> on a connection obtained from
+     * <code>lookupKey</code>. Only called when {@link #isStatementTracked()} is true.
+     */
+    void onStatement(Object lookupKey, long elapsedNanos);
+
+    /**
+     * Whether connections must be wrapped so that {@link #onStatement} gets called.
+     */
+    boolean isStatementTracked();
+}
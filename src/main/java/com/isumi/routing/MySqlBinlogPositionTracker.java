@@ -0,0 +1,57 @@
+package com.isumi.routing;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Binlog file/position tracker for masters without GTID. Only valid for slaves replicating
+ * directly from the master the position was captured on. Needs the REPLICATION CLIENT
+ * privilege on both sides.
+ */
+public class MySqlBinlogPositionTracker implements ReplicationPositionTracker {
+
+    private static final char SEPARATOR = ':';
+
+    @Override
+    public String capturePosition(Connection master) throws SQLException {
+        Statement stmt = master.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SHOW MASTER STATUS");
+            try {
+                if (!rs.next()) {
+                    throw new SQLException("Binary log is not enabled on master.");
+                }
+                return rs.getString("File") + SEPARATOR + rs.getLong("Position");
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Override
+    public boolean hasReached(Connection slave, String position) throws SQLException {
+        int idx = position.lastIndexOf(SEPARATOR);
+        String file = position.substring(0, idx);
+        long pos = Long.parseLong(position.substring(idx + 1));
+        Statement stmt = slave.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS");
+            try {
+                if (!rs.next()) {
+                    return false;
+                }
+                // binlog file names share the prefix and have a fixed width sequence suffix
+                int cmp = rs.getString("Relay_Master_Log_File").compareTo(file);
+                return cmp > 0 || (cmp == 0 && rs.getLong("Exec_Master_Log_Pos") >= pos);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.isumi.routing;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * GTID based tracker, needs gtid_mode=ON (MySQL 5.6.5+). The captured position is the
+ * master's gtid_executed, a superset of the session's own write, so it is always safe.
+ */
+public class MySqlGtidPositionTracker implements ReplicationPositionTracker {
+
+    private static final String CAPTURE_SQL = "SELECT @@GLOBAL.gtid_executed";
+    private static final String REACHED_SQL = "SELECT GTID_SUBSET(?, @@GLOBAL.gtid_executed)";
+
+    @Override
+    public String capturePosition(Connection master) throws SQLException {
+        Statement stmt = master.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(CAPTURE_SQL);
+            try {
+                if (!rs.next() || rs.getString(1) == null) {
+                    throw new SQLException("gtid_executed is not available, is gtid_mode ON?");
+                }
+                return rs.getString(1);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Override
+    public boolean hasReached(Connection slave, String position) throws SQLException {
+        PreparedStatement stmt = slave.prepareStatement(REACHED_SQL);
+        try {
+            stmt.setString(1, position);
+            ResultSet rs = stmt.executeQuery();
+            try {
+                return rs.next() && rs.getInt(1) == 1;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}
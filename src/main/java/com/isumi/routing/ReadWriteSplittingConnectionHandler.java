@@ -0,0 +1,396 @@
+package com.isumi.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Connection proxy that picks master or slave per statement instead of per borrow.
+ * <p>No real connection is taken until the first statement is prepared or executed.
+ * <code>SELECT</code> (and SHOW/EXPLAIN) outside a transaction goes to a slave; DML, DDL,
+ * locking reads (<code>FOR UPDATE</code>, <code>LOCK IN SHARE MODE</code>, <code>FOR SHARE</code>),
+ * <code>SELECT ... INTO</code>, advisory lock functions (<code>GET_LOCK</code> and friends),
+ * multi-statement strings, stored procedure calls and every statement inside a read-write
+ * transaction go to the master. Read-only transactions stay on one slave. Once the master has been used the
+ * connection sticks to it, so later reads see the connection's own writes.
+ * <p>autoCommit, readOnly and transaction isolation set before a real connection is chosen
+ * are recorded and replayed on it, and forwarded to connections already open.
+ */
+public class ReadWriteSplittingConnectionHandler implements InvocationHandler {
+
+    /**
+     * Where the real connections come from.
+     */
+    public interface TargetSource {
+
+        /**
+         * @return a slave connection, or <code>null</code> if no slave is available
+         */
+        Connection getReadConnection() throws SQLException;
+
+        Connection getWriteConnection() throws SQLException;
+    }
+
+    /**
+     * Matched against the statement with literals, quoted identifiers and comments blanked.
+     */
+    private static final Pattern READ_PATTERN  = Pattern.compile(
+        "^\\s*\\(*\\s*(?:select|show|explain|desc|describe)\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Anything in a read that needs the master: locking reads, SELECT ... INTO (outfile,
+     * dumpfile or variables), advisory locks, which live on the server that takes them, and
+     * a second statement after a ';'.
+     */
+    private static final Pattern WRITE_PATTERN = Pattern.compile(
+        "\\bfor\\s+update\\b|\\bfor\\s+share\\b|\\block\\s+in\\s+share\\s+mode\\b|\\binto\\b"
+                + "|\\b(?:get_lock|release_lock|release_all_locks|is_free_lock|is_used_lock)\\s*\\("
+                + "|;\\s*\\S",
+        Pattern.CASE_INSENSITIVE);
+
+    private final TargetSource source;
+    private Connection         proxy;
+    private Connection         readConnection;
+    private Connection         writeConnection;
+    private boolean            autoCommit = true;
+    private boolean            readOnly   = false;
+    private Integer            transactionIsolation;
+    private boolean            closed     = false;
+
+    private ReadWriteSplittingConnectionHandler(TargetSource source) {
+        this.source = source;
+    }
+
+    public static Connection wrap(TargetSource source) {
+        ReadWriteSplittingConnectionHandler handler = new ReadWriteSplittingConnectionHandler(
+            source);
+        handler.proxy = (Connection) Proxy.newProxyInstance(
+            ReadWriteSplittingConnectionHandler.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, handler);
+        return handler.proxy;
+    }
+
+    /**
+     * Whether <code>sql</code> can run on a slave when no transaction is open.
+     */
+    public static boolean isReadOnlyStatement(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        String code = blankLiterals(sql);
+        return READ_PATTERN.matcher(code).find() && !WRITE_PATTERN.matcher(code).find();
+    }
+
+    /**
+     * Replaces string literals ('...' and "..."), quoted identifiers and comments with a
+     * space, so that keywords and ';' are only found in the statement itself. The content of
+     * MySQL executable comments (<code>/*!50000 ... *&#47;</code>) is kept without the version,
+     * the server runs it.
+     */
+    static String blankLiterals(String sql) {
+        StringBuilder code = new StringBuilder(sql.length());
+        boolean inExecutableComment = false;
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(sql, i, c);
+                code.append(' ');
+            } else if (c == '#' || c == '-' && sql.startsWith("--", i)
+                       && (i + 2 == n || Character.isWhitespace(sql.charAt(i + 2)))) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end;
+                code.append(' ');
+            } else if (c == '/' && sql.startsWith("/*!", i)) {
+                inExecutableComment = true;
+                i += 3;
+                while (i < n && Character.isDigit(sql.charAt(i))) {// server version
+                    i++;
+                }
+                code.append(' ');
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                code.append(' ');
+            } else if (c == '*' && inExecutableComment && sql.startsWith("*/", i)) {
+                inExecutableComment = false;
+                i += 2;
+                code.append(' ');
+            } else {
+                code.append(c);
+                i++;
+            }
+        }
+        return code.toString();
+    }
+
+    /**
+     * @return index just after the closing quote of the literal starting at
+     *         <code>start</code>, or the end of <code>sql</code> if it isn't closed
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        int n = sql.length();
+        int i = start + 1;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < n && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name)) {
+            return "ReadWriteSplittingConnection[read=" + readConnection + ", write="
+                   + writeConnection + "]";
+        } else if ("isClosed".equals(name)) {
+            return closed;
+        } else if ("close".equals(name)) {
+            close();
+            return null;
+        }
+        checkOpen();
+
+        if ("setAutoCommit".equals(name)) {
+            autoCommit = (Boolean) args[0];
+            forward(method, args);
+            return null;
+        } else if ("getAutoCommit".equals(name)) {
+            return autoCommit;
+        } else if ("setReadOnly".equals(name)) {
+            readOnly = (Boolean) args[0];
+            forward(method, args);
+            return null;
+        } else if ("isReadOnly".equals(name)) {
+            return readOnly;
+        } else if ("setTransactionIsolation".equals(name)) {
+            transactionIsolation = (Integer) args[0];
+            forward(method, args);
+            return null;
+        } else if ("getTransactionIsolation".equals(name) && transactionIsolation != null) {
+            return transactionIsolation;
+        } else if (("commit".equals(name) || "rollback".equals(name))
+                   && (args == null || args.length == 0)) {
+            forward(method, args);
+            return null;
+        } else if ("clearWarnings".equals(name)) {
+            forward(method, args);
+            return null;
+        } else if ("getWarnings".equals(name) && readConnection == null
+                   && writeConnection == null) {
+            return null;
+        } else if ("createStatement".equals(name)) {
+            return Proxy.newProxyInstance(ReadWriteSplittingConnectionHandler.class.getClassLoader(),
+                new Class<?>[] { Statement.class }, new DeferredStatementHandler(method, args));
+        } else if ("prepareStatement".equals(name)) {
+            return delegate(target((String) args[0]), method, args);
+        } else if ("prepareCall".equals(name) || name.endsWith("Savepoint")
+                   || "rollback".equals(name)) {
+            return delegate(write(), method, args);
+        }
+        return delegate(current(), method, args);
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private boolean inTransaction() {
+        return !autoCommit && !readOnly;
+    }
+
+    private Connection target(String sql) throws SQLException {
+        if (writeConnection != null || inTransaction() || !isReadOnlyStatement(sql)) {
+            return write();
+        }
+        return read();
+    }
+
+    /**
+     * Connection for calls that carry no SQL.
+     */
+    private Connection current() throws SQLException {
+        if (writeConnection != null || inTransaction()) {
+            return write();
+        }
+        return read();
+    }
+
+    private Connection read() throws SQLException {
+        if (readConnection == null) {
+            Connection conn = source.getReadConnection();
+            if (conn == null) {
+                return write();
+            }
+            readConnection = replayState(conn);
+        }
+        return readConnection;
+    }
+
+    private Connection write() throws SQLException {
+        if (writeConnection == null) {
+            writeConnection = replayState(source.getWriteConnection());
+        }
+        return writeConnection;
+    }
+
+    private Connection replayState(Connection conn) throws SQLException {
+        try {
+            if (transactionIsolation != null) {
+                conn.setTransactionIsolation(transactionIsolation);
+            }
+            if (conn.isReadOnly() != readOnly) {
+                conn.setReadOnly(readOnly);
+            }
+            if (conn.getAutoCommit() != autoCommit) {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        return conn;
+    }
+
+    private void forward(Method method, Object[] args) throws Throwable {
+        if (readConnection != null) {
+            delegate(readConnection, method, args);
+        }
+        if (writeConnection != null) {
+            delegate(writeConnection, method, args);
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection is closed.");
+        }
+    }
+
+    private void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        SQLException error = null;
+        for (Connection conn : new Connection[] { readConnection, writeConnection }) {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    error = e;
+                }
+            }
+        }
+        readConnection = null;
+        writeConnection = null;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Statement returned by createStatement(): the real statement is created on the connection
+     * chosen by the first SQL it executes, with the recorded setters replayed. If a later SQL
+     * needs the master the real statement is recreated there.
+     */
+    private class DeferredStatementHandler implements InvocationHandler {
+
+        private final Method         createMethod;
+        private final Object[]       createArgs;
+        private final List<Method>   setters    = new ArrayList<Method>();
+        private final List<Object[]> setterArgs = new ArrayList<Object[]>();
+        private Statement            statement;
+        private Connection           statementConnection;
+        private boolean              statementClosed = false;
+
+        DeferredStatementHandler(Method createMethod, Object[] createArgs) {
+            this.createMethod = createMethod;
+            this.createArgs = createArgs;
+        }
+
+        @Override
+        public Object invoke(Object stmtProxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return stmtProxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(stmtProxy);
+            } else if ("toString".equals(name)) {
+                return "DeferredStatement[" + statement + "]";
+            } else if ("getConnection".equals(name)) {
+                return proxy;
+            } else if ("isClosed".equals(name)) {
+                return statementClosed || closed;
+            } else if ("close".equals(name)) {
+                statementClosed = true;
+                if (statement != null) {
+                    statement.close();
+                }
+                return null;
+            }
+            if (statementClosed) {
+                throw new SQLException("Statement is closed.");
+            }
+
+            if ("addBatch".equals(name)) {
+                bind(write());
+            } else if (name.startsWith("execute") && args != null && args.length > 0
+                       && args[0] instanceof String) {
+                bind(target((String) args[0]));
+            } else if (name.startsWith("set") && !"setCursorName".equals(name)) {
+                setters.add(method);
+                setterArgs.add(args);
+                if (statement == null) {
+                    return null;
+                }
+            } else if (statement == null) {
+                bind(current());
+            }
+            return ReadWriteSplittingConnectionHandler.delegate(statement, method, args);
+        }
+
+        private void bind(Connection conn) throws Throwable {
+            if (statementConnection == conn) {
+                return;
+            }
+            if (statement != null) {
+                statement.close();
+            }
+            statement = (Statement) ReadWriteSplittingConnectionHandler.delegate(conn, createMethod,
+                createArgs);
+            statementConnection = conn;
+            for (int i = 0; i < setters.size(); i++) {
+                ReadWriteSplittingConnectionHandler.delegate(statement, setters.get(i),
+                    setterArgs.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.isumi.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Measures how far a slave is behind its master, used by
+ * {@link com.isumi.DynamicRoutingDataSource} to keep lagging slaves out of the read rotation.
+ */
+public interface ReplicationLagProbe {
+
+    /**
+     * @param connection a connection to the slave, closed by the caller
+     * @return replication lag in milliseconds, {@link Long#MAX_VALUE} if the slave is not
+     *         replicating at all
+     */
+    long probeLagMillis(Connection connection) throws SQLException;
+}
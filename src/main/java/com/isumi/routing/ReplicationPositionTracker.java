@@ -0,0 +1,24 @@
+package com.isumi.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Captures the replication position of a write on the master and tells whether a slave has
+ * applied it, used by {@link com.isumi.DynamicRoutingDataSource} for read-your-writes.
+ */
+public interface ReplicationPositionTracker {
+
+    /**
+     * @param master the connection the write was done on
+     * @return an opaque position that covers the write
+     */
+    String capturePosition(Connection master) throws SQLException;
+
+    /**
+     * @param slave    a connection to the slave, closed by the caller
+     * @param position a value returned by {@link #capturePosition}
+     * @return true if the slave has applied everything up to <code>position</code>
+     */
+    boolean hasReached(Connection slave, String position) throws SQLException;
+}
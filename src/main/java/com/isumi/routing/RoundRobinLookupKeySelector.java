@@ -0,0 +1,53 @@
+package com.isumi.routing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plain round robin, the historical behaviour of DynamicRoutingDataSource.
+ */
+public class RoundRobinLookupKeySelector implements LookupKeySelector {
+
+    private final AtomicInteger sets = new AtomicInteger(0);
+
+    @Override
+    public Object select(List<Object> lookupKeys) {
+        int size = lookupKeys.size();
+        if (size == 0) {
+            return null;
+        }
+        int i = sets.incrementAndGet() & Integer.MAX_VALUE;
+        try {
+            return lookupKeys.get(i % size);
+        } catch (IndexOutOfBoundsException e) {
+            // key ejected concurrently
+            return select(lookupKeys);
+        }
+    }
+
+    @Override
+    public void onAcquire(Object lookupKey, long acquireNanos) {
+    }
+
+    @Override
+    public void onAcquireFailure(Object lookupKey) {
+    }
+
+    @Override
+    public void onRelease(Object lookupKey, long holdNanos) {
+    }
+
+    @Override
+    public boolean isReleaseTracked() {
+        return false;
+    }
+
+    @Override
+    public void onStatement(Object lookupKey, long elapsedNanos) {
+    }
+
+    @Override
+    public boolean isStatementTracked() {
+        return false;
+    }
+}
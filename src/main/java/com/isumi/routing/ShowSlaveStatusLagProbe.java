@@ -0,0 +1,39 @@
+package com.isumi.routing;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * MySQL lag from <code>SHOW SLAVE STATUS</code>. Seconds_Behind_Master only has second
+ * resolution and is NULL when the SQL or IO thread is stopped, which is reported as
+ * {@link Long#MAX_VALUE}. Needs the REPLICATION CLIENT privilege.
+ */
+public class ShowSlaveStatusLagProbe implements ReplicationLagProbe {
+
+    private static final String SQL    = "SHOW SLAVE STATUS";
+    private static final String COLUMN = "Seconds_Behind_Master";
+
+    @Override
+    public long probeLagMillis(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(SQL);
+            try {
+                if (!rs.next()) {
+                    throw new SQLException("Not a slave, " + SQL + " returned no row.");
+                }
+                long seconds = rs.getLong(COLUMN);
+                if (rs.wasNull()) {
+                    return Long.MAX_VALUE;
+                }
+                return seconds * 1000L;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+}
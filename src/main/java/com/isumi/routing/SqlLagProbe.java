@@ -0,0 +1,43 @@
+package com.isumi.routing;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Lag from a heartbeat table (pt-heartbeat style) or any other query whose first column of
+ * the first row is the lag in milliseconds. A NULL or missing row is reported as
+ * {@link Long#MAX_VALUE}.
+ */
+public class SqlLagProbe implements ReplicationLagProbe {
+
+    private String sql = "SELECT TIMESTAMPDIFF(MICROSECOND, MAX(ts), NOW(6)) / 1000 FROM heartbeat";
+
+    @Override
+    public long probeLagMillis(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(sql);
+            try {
+                if (!rs.next()) {
+                    return Long.MAX_VALUE;
+                }
+                long lag = rs.getLong(1);
+                return rs.wasNull() ? Long.MAX_VALUE : Math.max(0L, lag);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public void setSql(String sql) {
+        this.sql = sql;
+    }
+}
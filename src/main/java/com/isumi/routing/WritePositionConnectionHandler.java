@@ -0,0 +1,141 @@
+package com.isumi.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import com.isumi.util.DynamicDbContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Master connection proxy that records the replication position of the thread's writes
+ * into {@link DynamicDbContext}: after commit() for transactions, and on close() for
+ * autocommit connections. Only connections that ran a statement other than a plain read
+ * (see {@link ReadWriteSplittingConnectionHandler#isReadOnlyStatement(String)}) pay for the
+ * capture.
+ * <p>If the position can not be captured, {@link DynamicDbContext#UNKNOWN_POSITION} is
+ * recorded so that following reads stay on the master.
+ * <p>The position is kept in a thread local: request threads must call
+ * {@link DynamicDbContext#reset()} when a request ends. Positions older than the router's
+ * causalTtlMillis are ignored and dropped anyway.
+ */
+public class WritePositionConnectionHandler implements InvocationHandler {
+
+    private static final Logger LOGGER = LoggerFactory
+        .getLogger(WritePositionConnectionHandler.class);
+
+    private final Connection                 target;
+    private final ReplicationPositionTracker tracker;
+    private boolean                          used   = false;
+    private boolean                          closed = false;
+
+    private WritePositionConnectionHandler(Connection target, ReplicationPositionTracker tracker) {
+        this.target = target;
+        this.tracker = tracker;
+    }
+
+    public static Connection wrap(Connection target, ReplicationPositionTracker tracker) {
+        return (Connection) Proxy.newProxyInstance(
+            WritePositionConnectionHandler.class.getClassLoader(),
+            new Class<?>[] { Connection.class }, new WritePositionConnectionHandler(target, tracker));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("close".equals(name)) {
+            if (closed) {
+                return null;
+            }
+            closed = true;
+            if (used && !target.isClosed() && target.getAutoCommit()) {
+                capture();
+            }
+        } else if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+            return target;
+        } else if ("isWrapperFor".equals(name) && ((Class<?>) args[0]).isInstance(target)) {
+            return Boolean.TRUE;
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        }
+
+        Object result;
+        try {
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+
+        if ("createStatement".equals(name)) {
+            return Proxy.newProxyInstance(WritePositionConnectionHandler.class.getClassLoader(),
+                new Class<?>[] { Statement.class },
+                new StatementHandler((Statement) result, (Connection) proxy));
+        } else if (name.startsWith("prepare")) {
+            markIfWrite((String) args[0]);
+        } else if ("commit".equals(name)) {
+            if (used) {
+                capture();
+            }
+        } else if ("rollback".equals(name) && (args == null || args.length == 0)) {
+            used = false;
+        }
+        return result;
+    }
+
+    private void markIfWrite(String sql) {
+        if (!ReadWriteSplittingConnectionHandler.isReadOnlyStatement(sql)) {
+            used = true;
+        }
+    }
+
+    private void capture() {
+        used = false;
+        try {
+            DynamicDbContext.setReplicationPosition(tracker.capturePosition(target));
+        } catch (Exception e) {
+            LOGGER.warn("Capture replication position fail, reads of this thread stay on master.",
+                e);
+            DynamicDbContext.setReplicationPosition(DynamicDbContext.UNKNOWN_POSITION);
+        }
+    }
+
+    /**
+     * Statement from createStatement(): the SQL is only known when it is executed or batched.
+     */
+    private class StatementHandler implements InvocationHandler {
+
+        private final Statement  statement;
+        private final Connection connection;
+
+        StatementHandler(Statement statement, Connection connection) {
+            this.statement = statement;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object stmtProxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return stmtProxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(stmtProxy);
+            } else if ("getConnection".equals(name)) {
+                return connection;
+            } else if ((name.startsWith("execute") || "addBatch".equals(name)) && args != null
+                       && args.length > 0 && args[0] instanceof String) {
+                markIfWrite((String) args[0]);
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.isumi.util;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-256/GCM codec. The cipher text is <code>Base64(iv || encrypted || tag)</code> with a
+ * random 12 byte iv per encryption, so the same password never encrypts the same way twice
+ * and a wrong key or tampered value fails instead of decrypting to garbage.
+ * <p>The AES key is the SHA-256 of the configured key string.
+ */
+public class AesGcmCredentialCodec implements CredentialCodec {
+
+    private static final int          IV_BYTES = 12;
+    private static final int          TAG_BITS = 128;
+    private static final SecureRandom RANDOM   = new SecureRandom();
+
+    private final SecretKeySpec       secretKey;
+    private final ThreadLocal<Cipher> ciphers;
+
+    public AesGcmCredentialCodec(String key) throws GeneralSecurityException {
+        this.secretKey = new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(
+            key.getBytes(CredentialCodecs.UTF8)), "AES");
+        this.ciphers = CredentialCodecs.cipherPerThread("AES/GCM/NoPadding");
+    }
+
+    @Override
+    public String encrypt(String plain) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, iv));
+        byte[] encrypted = cipher.doFinal(plain.getBytes(CredentialCodecs.UTF8));
+        byte[] out = new byte[IV_BYTES + encrypted.length];
+        System.arraycopy(iv, 0, out, 0, IV_BYTES);
+        System.arraycopy(encrypted, 0, out, IV_BYTES, encrypted.length);
+        return Base64.getEncoder().encodeToString(out);
+    }
+
+    @Override
+    public String decrypt(String encoded) throws GeneralSecurityException {
+        byte[] in = CredentialCodecs.decodeBase64(encoded);
+        if (in.length < IV_BYTES + TAG_BITS / 8) {
+            throw new AEADBadTagException("Cipher text too short");
+        }
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, in, 0,
+            IV_BYTES));
+        return new String(cipher.doFinal(in, IV_BYTES, in.length - IV_BYTES),
+            CredentialCodecs.UTF8);
+    }
+}
@@ -0,0 +1,258 @@
+package com.isumi.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Closed / open / half-open circuit breaker guarding the physical connects of one
+ * AbstractDataSource.
+ * <ul>
+ * <li>CLOSED: every call is permitted; outcomes go to a sliding time window and the breaker
+ * opens when at least <code>minimumCalls</code> were seen and the failure rate reaches
+ * <code>failureRatePercent</code>. A fatal error opens it at once.</li>
+ * <li>OPEN: calls are denied without waiting until <code>openMillis</code> elapsed.</li>
+ * <li>HALF_OPEN: at most <code>halfOpenProbes</code> calls run concurrently; the first
+ * success closes the breaker, a failure opens it again.</li>
+ * </ul>
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public interface Listener {
+        void onStateChange(CircuitBreaker breaker, State from, State to);
+    }
+
+    /** Call denied, breaker is open or all half-open probes are taken. */
+    public static final int DENIED    = 0;
+    /** Call permitted while closed. */
+    public static final int PERMITTED = 1;
+    /** Call permitted as one of the half-open probes. */
+    public static final int PROBE     = 2;
+
+    private static final int BUCKETS = 10;
+
+    private final String                 name;
+    private final long                   windowMillis;
+    private final int                    minimumCalls;
+    private final int                    failureRatePercent;
+    private final long                   openMillis;
+    private final int                    halfOpenProbes;
+
+    private final AtomicReference<State> state     = new AtomicReference<State>(State.CLOSED);
+    private volatile long                openedAt;
+    private final AtomicInteger          probes    = new AtomicInteger();
+    private final AtomicLongArray        epochs    = new AtomicLongArray(BUCKETS);
+    private final LongAdder[]            successes = new LongAdder[BUCKETS];
+    private final LongAdder[]            failures  = new LongAdder[BUCKETS];
+    private final List<Listener>         listeners = new CopyOnWriteArrayList<Listener>();
+
+    public CircuitBreaker(String name, long windowMillis, int minimumCalls,
+                          int failureRatePercent, long openMillis, int halfOpenProbes) {
+        this.name = name;
+        this.windowMillis = Math.max(BUCKETS, windowMillis);
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.failureRatePercent = Math.min(100, Math.max(1, failureRatePercent));
+        this.openMillis = Math.max(0L, openMillis);
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        for (int i = 0; i < BUCKETS; i++) {
+            successes[i] = new LongAdder();
+            failures[i] = new LongAdder();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isClosed() {
+        return state.get() == State.CLOSED;
+    }
+
+    /**
+     * @return failed calls in the current window
+     */
+    public long getWindowFailures() {
+        return windowSum(false);
+    }
+
+    /**
+     * @return failed plus succeeded calls in the current window
+     */
+    public long getWindowCalls() {
+        return windowSum(true);
+    }
+
+    private long windowSum(boolean withSuccesses) {
+        long now = System.currentTimeMillis();
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (now - epochs.get(i) < windowMillis) {
+                sum += failures[i].sum();
+                if (withSuccesses) {
+                    sum += successes[i].sum();
+                }
+            }
+        }
+        return sum;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return {@link #DENIED}, {@link #PERMITTED} or {@link #PROBE}; anything but DENIED must
+     *         be followed by exactly one of onSuccess, onFailure or release
+     */
+    public int tryAcquirePermission() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return PERMITTED;
+        }
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                return DENIED;
+            }
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+        for (;;) {
+            int p = probes.get();
+            if (p >= halfOpenProbes || state.get() != State.HALF_OPEN) {
+                return state.get() == State.CLOSED ? PERMITTED : DENIED;
+            }
+            if (probes.compareAndSet(p, p + 1)) {
+                return PROBE;
+            }
+        }
+    }
+
+    /**
+     * @return true if this success closed the breaker
+     */
+    public boolean onSuccess(int permission) {
+        if (permission == PROBE) {
+            probes.decrementAndGet();
+            return transition(State.HALF_OPEN, State.CLOSED);
+        }
+        successes[bucket(System.currentTimeMillis())].increment();
+        return false;
+    }
+
+    public void onFailure(int permission, boolean fatal) {
+        if (permission == PROBE) {
+            probes.decrementAndGet();
+            transition(State.HALF_OPEN, State.OPEN);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        failures[bucket(now)].increment();
+        if (fatal) {
+            transition(State.CLOSED, State.OPEN);
+            return;
+        }
+        long failed = 0, total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (now - epochs.get(i) < windowMillis) {
+                long f = failures[i].sum();
+                failed += f;
+                total += f + successes[i].sum();
+            }
+        }
+        if (total >= minimumCalls && failed * 100 >= total * failureRatePercent) {
+            transition(State.CLOSED, State.OPEN);
+        }
+    }
+
+    /**
+     * The permitted call ended without telling anything about the database (e.g. pool wait
+     * timeout), give the permission back.
+     */
+    public void release(int permission) {
+        if (permission == PROBE) {
+            probes.decrementAndGet();
+        }
+    }
+
+    /**
+     * Force the breaker open, e.g. from an operator action.
+     */
+    public void trip() {
+        transition(State.CLOSED, State.OPEN);
+        transition(State.HALF_OPEN, State.OPEN);
+    }
+
+    /**
+     * Force the breaker closed and forget the window.
+     */
+    public void reset() {
+        transition(State.OPEN, State.CLOSED);
+        transition(State.HALF_OPEN, State.CLOSED);
+    }
+
+    private int bucket(long now) {
+        long bucketMillis = windowMillis / BUCKETS;
+        long epoch = now - now % bucketMillis;
+        int idx = (int) ((now / bucketMillis) % BUCKETS);
+        long old = epochs.get(idx);
+        if (old != epoch && epochs.compareAndSet(idx, old, epoch)) {
+            // a few concurrent samples may be lost on rotation, harmless for a rate
+            successes[idx].reset();
+            failures[idx].reset();
+        }
+        return idx;
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < BUCKETS; i++) {
+            epochs.set(i, 0L);
+            successes[i].reset();
+            failures[i].reset();
+        }
+    }
+
+    private boolean transition(State from, State to) {
+        if (to == State.OPEN && state.get() == from) {
+            openedAt = System.currentTimeMillis();
+        }
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        if (to == State.CLOSED || to == State.HALF_OPEN) {
+            clearWindow();
+        }
+        LOGGER.warn("[Circuit breaker " + name + "] " + from + " -> " + to);
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException e) {
+                LOGGER.error("[Circuit breaker " + name + "] listener error", e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker[" + name + ", " + state.get() + "]";
+    }
+}
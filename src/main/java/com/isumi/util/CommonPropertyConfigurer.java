@@ -2,11 +2,8 @@ package com.isumi.util;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -26,6 +23,10 @@ public class CommonPropertyConfigurer extends PropertyPlaceholderConfigurer impl
     private static String mainPoolId = null;
     private boolean envOverride = true;
     private static String commonPro = "common.properties";
+    private int fetchConnectTimeout = 3000;
+    private int fetchReadTimeout = 10000;
+    private int fetchThreads = 4;
+    private String configCacheDir;
 
     public CommonPropertyConfigurer() {
     }
@@ -117,11 +118,7 @@ public class CommonPropertyConfigurer extends PropertyPlaceholderConfigurer impl
 
     public void loadLocations(String urlPath, String classPath) throws Exception {
         try {
-            for(int i = 0; i < this.locations.size(); ++i) {
-                String location = (String)this.locations.get(i);
-                this.downloadNet(urlPath, classPath, location);
-            }
-
+            this.newConfigFetcher().fetch(urlPath, new File(classPath), this.locations);
             this.loadPropertiesAndSetSystem(classPath);
         } catch (Exception var5) {
             var5.printStackTrace();
@@ -130,34 +127,22 @@ public class CommonPropertyConfigurer extends PropertyPlaceholderConfigurer impl
     }
 
     public void downloadNet(String urlPath, String classPath, String fileName) throws Exception {
-        File file = new File(classPath + "/" + fileName);
-        if (file.exists() && file.isFile()) {
-            file.delete();
-        }
-
-        FileOutputStream fs = null;
-
         try {
-            URL url = new URL(urlPath + "/" + fileName);
-            URLConnection conn = url.openConnection();
-            InputStream inStream = conn.getInputStream();
-            fs = new FileOutputStream(classPath + "/" + fileName);
-            byte[] buffer = new byte[1024];
-            int byteread;
-            while((byteread = inStream.read(buffer)) != -1) {
-                fs.write(buffer, 0, byteread);
-            }
+            this.newConfigFetcher().fetch(urlPath, new File(classPath), fileName);
+        } catch (IOException var5) {
+            throw new RuntimeException("file down is error !", var5);
+        }
+    }
 
-            fs.flush();
-        } catch (Exception var18) {
-            throw new RuntimeException("file down is error !");
-        } finally {
-            try {
-                fs.close();
-            } catch (IOException var17) {
-                throw new RuntimeException("file close is error !");
-            }
+    private ConfigFetcher newConfigFetcher() {
+        ConfigFetcher fetcher = new ConfigFetcher();
+        fetcher.setConnectTimeoutMillis(this.fetchConnectTimeout);
+        fetcher.setReadTimeoutMillis(this.fetchReadTimeout);
+        fetcher.setThreads(this.fetchThreads);
+        if (StringUtils.isNotBlank(this.configCacheDir)) {
+            fetcher.setCacheDir(new File(this.configCacheDir, poolId));
         }
+        return fetcher;
     }
 
     public static Properties loadProperties(File propFile) {
@@ -202,4 +187,40 @@ public class CommonPropertyConfigurer extends PropertyPlaceholderConfigurer impl
     public void setEnvOverride(boolean envOverride) {
         this.envOverride = envOverride;
     }
+
+    public int getFetchConnectTimeout() {
+        return this.fetchConnectTimeout;
+    }
+
+    public void setFetchConnectTimeout(int fetchConnectTimeout) {
+        this.fetchConnectTimeout = fetchConnectTimeout;
+    }
+
+    public int getFetchReadTimeout() {
+        return this.fetchReadTimeout;
+    }
+
+    public void setFetchReadTimeout(int fetchReadTimeout) {
+        this.fetchReadTimeout = fetchReadTimeout;
+    }
+
+    public int getFetchThreads() {
+        return this.fetchThreads;
+    }
+
+    public void setFetchThreads(int fetchThreads) {
+        this.fetchThreads = fetchThreads;
+    }
+
+    public String getConfigCacheDir() {
+        return this.configCacheDir;
+    }
+
+    /**
+     * Directory outside the classpath keeping the last downloaded copy of every config file,
+     * used when the config server is unreachable after a redeploy wiped the classpath copies.
+     */
+    public void setConfigCacheDir(String configCacheDir) {
+        this.configCacheDir = configCacheDir;
+    }
 }
@@ -0,0 +1,295 @@
+package com.isumi.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads config files from the config server into a local directory.
+ * <ul>
+ * <li>files are fetched in parallel, each with connect and read timeouts;</li>
+ * <li>the ETag / Last-Modified of the last download are sent back, a 304 keeps the local
+ * copy;</li>
+ * <li>a download goes to a temp file that is renamed over the target once complete, so the
+ * target is never half written;</li>
+ * <li>when the server can't be reached the last good copy is used: the target itself, or the
+ * copy kept in <code>cacheDir</code> when the target directory is wiped on redeploy.</li>
+ * </ul>
+ * A file that can neither be downloaded nor found locally fails the fetch.
+ */
+public class ConfigFetcher {
+
+    private static final Logger LOGGER      = LoggerFactory.getLogger(ConfigFetcher.class);
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String ETAG        = "ETag";
+    private static final String LAST_MOD    = "Last-Modified";
+
+    public enum Result {
+        DOWNLOADED, NOT_MODIFIED, LAST_KNOWN_GOOD
+    }
+
+    private int  connectTimeoutMillis = 3000;
+    private int  readTimeoutMillis    = 10000;
+    private int  threads              = 4;
+    private File cacheDir;
+
+    /**
+     * Fetch every file of <code>fileNames</code> from <code>baseUrl</code> into
+     * <code>targetDir</code>.
+     *
+     * @return how each file was obtained, in the order of <code>fileNames</code>
+     * @throws IOException if a file is neither downloadable nor available locally
+     */
+    public Map<String, Result> fetch(final String baseUrl, final File targetDir,
+                                     List<String> fileNames) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(threads, fileNames.size())), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-config-fetch-" + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(fileNames.size());
+            for (final String fileName : fileNames) {
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws IOException {
+                        return fetch(baseUrl, targetDir, fileName);
+                    }
+                }));
+            }
+            Map<String, Result> results = new LinkedHashMap<String, Result>();
+            for (int i = 0; i < fileNames.size(); i++) {
+                results.put(fileNames.get(i), await(futures.get(i)));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result await(Future<Result> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching config", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public Result fetch(String baseUrl, File targetDir, String fileName) throws IOException {
+        File target = new File(targetDir, fileName);
+        File metaFile = new File(cacheDir != null ? cacheDir : targetDir, "." + fileName
+                                                                         + META_SUFFIX);
+        try {
+            return download(new URL(baseUrl + "/" + fileName), target, metaFile);
+        } catch (IOException e) {
+            if (target.isFile()) {
+                LOGGER.warn("Fetch of " + fileName + " failed, using local copy " + target + ": "
+                            + e);
+                return Result.LAST_KNOWN_GOOD;
+            }
+            File cached = cacheDir != null ? new File(cacheDir, fileName) : null;
+            if (cached != null && cached.isFile()) {
+                LOGGER.warn("Fetch of " + fileName + " failed, using cached copy " + cached + ": "
+                            + e);
+                copyAtomically(cached, target);
+                return Result.LAST_KNOWN_GOOD;
+            }
+            throw new IOException("Can't fetch " + fileName + " and there is no local copy", e);
+        }
+    }
+
+    private Result download(URL url, File target, File metaFile) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(readTimeoutMillis);
+        conn.setUseCaches(false);
+        Properties meta = target.isFile() ? loadMeta(metaFile) : new Properties();
+        if (meta.getProperty(ETAG) != null) {
+            conn.setRequestProperty("If-None-Match", meta.getProperty(ETAG));
+        }
+        if (meta.getProperty(LAST_MOD) != null) {
+            conn.setRequestProperty("If-Modified-Since", meta.getProperty(LAST_MOD));
+        }
+        if (conn instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) conn;
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                http.disconnect();
+                return Result.NOT_MODIFIED;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                http.disconnect();
+                throw new IOException("HTTP " + status + " from " + url);
+            }
+        }
+
+        File tmp = File.createTempFile("." + target.getName(), ".tmp", target.getParentFile());
+        try {
+            InputStream in = conn.getInputStream();
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (cacheDir != null) {
+                cacheDir.mkdirs();
+                copyAtomically(tmp, new File(cacheDir, target.getName()));
+            }
+            move(tmp, target);
+        } finally {
+            tmp.delete();
+        }
+
+        meta = new Properties();
+        if (conn.getHeaderField(ETAG) != null) {
+            meta.setProperty(ETAG, conn.getHeaderField(ETAG));
+        }
+        if (conn.getHeaderField(LAST_MOD) != null) {
+            meta.setProperty(LAST_MOD, conn.getHeaderField(LAST_MOD));
+        }
+        storeMeta(meta, metaFile);
+        return Result.DOWNLOADED;
+    }
+
+    private static void copyAtomically(File source, File target) throws IOException {
+        File tmp = File.createTempFile("." + target.getName(), ".tmp", target.getParentFile());
+        try {
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            move(tmp, target);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static Properties loadMeta(File metaFile) {
+        Properties meta = new Properties();
+        if (metaFile.isFile()) {
+            try {
+                InputStream in = new FileInputStream(metaFile);
+                try {
+                    meta.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // unconditional download then
+            }
+        }
+        return meta;
+    }
+
+    private static void storeMeta(Properties meta, File metaFile) {
+        try {
+            if (meta.isEmpty()) {
+                metaFile.delete();
+                return;
+            }
+            metaFile.getParentFile().mkdirs();
+            File tmp = File.createTempFile(metaFile.getName(), ".tmp", metaFile.getParentFile());
+            try {
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    meta.store(out, null);
+                } finally {
+                    out.close();
+                }
+                move(tmp, metaFile);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't store " + metaFile + ", next fetch is unconditional: " + e);
+        }
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Directory keeping a copy of every downloaded file, used when the server is unreachable
+     * and the target directory has no copy.
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+}
@@ -0,0 +1,20 @@
+package com.isumi.util;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Encrypts and decrypts the passwords kept in data source config files. Implementations are
+ * thread-safe; get them from {@link CredentialCodecs}, which caches one per algorithm and key.
+ */
+public interface CredentialCodec {
+
+    /**
+     * @return the Base64 encoded cipher text of <code>plain</code>
+     */
+    String encrypt(String plain) throws GeneralSecurityException;
+
+    /**
+     * @param encoded Base64 encoded cipher text, line breaks are ignored
+     */
+    String decrypt(String encoded) throws GeneralSecurityException;
+}
@@ -0,0 +1,101 @@
+package com.isumi.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Looks up {@link CredentialCodec}s by algorithm and key, caching them so that reloads and
+ * pool rebuilds don't derive keys or create ciphers again.
+ * <p>Algorithms: <code>DES</code> (legacy, default key of {@link DesUtil} when no key is
+ * given), <code>AES-GCM</code>, or the class name of a CredentialCodec with a public
+ * <code>(String key)</code> constructor.
+ */
+public final class CredentialCodecs {
+
+    public static final String                                  DES     = "DES";
+    public static final String                                  AES_GCM = "AES-GCM";
+
+    static final Charset                                        UTF8    = Charset.forName("UTF-8");
+
+    private static final ConcurrentMap<String, CredentialCodec> CODECS  = new ConcurrentHashMap<String, CredentialCodec>();
+
+    private CredentialCodecs() {
+    }
+
+    public static CredentialCodec get(String algorithm, String key)
+                                                                   throws GeneralSecurityException {
+        if (DES.equalsIgnoreCase(algorithm)) {
+            algorithm = DES;
+        } else if (AES_GCM.equalsIgnoreCase(algorithm)) {
+            algorithm = AES_GCM;
+        }
+        String cacheKey = algorithm + '\u0000' + key;
+        CredentialCodec codec = CODECS.get(cacheKey);
+        if (codec == null) {
+            codec = create(algorithm, key);
+            CredentialCodec existing = CODECS.putIfAbsent(cacheKey, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    private static CredentialCodec create(String algorithm, String key)
+                                                                       throws GeneralSecurityException {
+        if (DES.equals(algorithm)) {
+            return new DesCredentialCodec(key != null ? key : DesUtil.DEFAULT_KEY);
+        }
+        if (key == null) {
+            throw new GeneralSecurityException("No key given for credential codec " + algorithm);
+        }
+        if (AES_GCM.equals(algorithm)) {
+            return new AesGcmCredentialCodec(key);
+        }
+        try {
+            return (CredentialCodec) Thread.currentThread().getContextClassLoader()
+                .loadClass(algorithm).getConstructor(String.class).newInstance(key);
+        } catch (InvocationTargetException e) {
+            if (e.getTargetException() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getTargetException();
+            }
+            throw new GeneralSecurityException("Can't create credential codec " + algorithm,
+                e.getTargetException());
+        } catch (Exception e) {
+            throw new NoSuchAlgorithmException("Unknown credential codec " + algorithm, e);
+        }
+    }
+
+    static ThreadLocal<Cipher> cipherPerThread(final String transformation)
+                                                                          throws GeneralSecurityException {
+        Cipher.getInstance(transformation);// fail now rather than on first use
+        return new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                try {
+                    return Cipher.getInstance(transformation);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                } catch (NoSuchPaddingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    static byte[] decodeBase64(String encoded) throws GeneralSecurityException {
+        try {
+            return Base64.getMimeDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Not Base64: " + e.getMessage());
+        }
+    }
+}
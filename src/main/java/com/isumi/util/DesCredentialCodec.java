@@ -0,0 +1,39 @@
+package com.isumi.util;
+
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.DESKeySpec;
+
+/**
+ * Legacy DES/ECB/PKCS5Padding codec, compatible with what {@link DesUtil} always produced.
+ * <p>The key is derived once; each thread keeps its own Cipher, re-initialised per call.
+ */
+public class DesCredentialCodec implements CredentialCodec {
+
+    private final SecretKey           secretKey;
+    private final ThreadLocal<Cipher> ciphers;
+
+    public DesCredentialCodec(String key) throws GeneralSecurityException {
+        this.secretKey = SecretKeyFactory.getInstance("DES").generateSecret(
+            new DESKeySpec(key.getBytes(CredentialCodecs.UTF8)));
+        this.ciphers = CredentialCodecs.cipherPerThread("DES");
+    }
+
+    @Override
+    public String encrypt(String plain) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+        return Base64.getEncoder().encodeToString(cipher.doFinal(plain.getBytes(CredentialCodecs.UTF8)));
+    }
+
+    @Override
+    public String decrypt(String encoded) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey);
+        return new String(cipher.doFinal(CredentialCodecs.decodeBase64(encoded)), CredentialCodecs.UTF8);
+    }
+}
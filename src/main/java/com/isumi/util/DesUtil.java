@@ -1,46 +1,31 @@
 package com.isumi.util;
 
-import java.io.IOException;
-import java.security.SecureRandom;
-
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.DESKeySpec;
-
-import sun.misc.BASE64Decoder;
-import sun.misc.BASE64Encoder;
-
 public class DesUtil {
 
-    private final static String DES = "DES";
-
-    private final static String key = "mzlab!@#$%";
+    final static String DEFAULT_KEY = "mzlab!@#$%";
 
     public static void main(String[] args) throws Exception {
         String data = "mzlab#@2016";
-        System.err.println(encrypt(data, key));
-        System.err.println(decrypt(encrypt(data, key), key));
+        System.err.println(encrypt(data, DEFAULT_KEY));
+        System.err.println(decrypt(encrypt(data, DEFAULT_KEY), DEFAULT_KEY));
     }
 
     /**
      * Description 根据键值进行加密
      * @param data 
-     * @param key  加密键byte数组
+     * @param key  加密键
      * @return
      * @throws Exception
      */
     public static String encrypt(String data, String key) throws Exception {
-        byte[] bt = encrypt(data.getBytes(), key.getBytes());
-        String strs = new BASE64Encoder().encode(bt);
-        return strs;
+        return CredentialCodecs.get(CredentialCodecs.DES, key).encrypt(data);
     }
 
     public static String decrypt(String data) {
         try {
-            return decrypt(data, key);
+            return decrypt(data, DEFAULT_KEY);
         } catch (Exception e) {
-            // TODO: handle exception
+            // 解密失败返回空串,由调用方决定是否按明文处理
         }
         return "";
     }
@@ -48,71 +33,13 @@ public class DesUtil {
     /**
      * Description 根据键值进行解密
      * @param data
-     * @param key  加密键byte数组
+     * @param key  加密键
      * @return
-     * @throws IOException
      * @throws Exception
      */
-    public static String decrypt(String data, String key) throws IOException, Exception {
+    public static String decrypt(String data, String key) throws Exception {
         if (data == null)
             return null;
-        BASE64Decoder decoder = new BASE64Decoder();
-        byte[] buf = decoder.decodeBuffer(data);
-        byte[] bt = decrypt(buf, key.getBytes());
-        return new String(bt);
-    }
-
-    /**
-     * Description 根据键值进行加密
-     * @param data
-     * @param key  加密键byte数组
-     * @return
-     * @throws Exception
-     */
-    private static byte[] encrypt(byte[] data, byte[] key) throws Exception {
-        // 生成一个可信任的随机数源
-        SecureRandom sr = new SecureRandom();
-
-        // 从原始密钥数据创建DESKeySpec对象
-        DESKeySpec dks = new DESKeySpec(key);
-
-        // 创建一个密钥工厂，然后用它把DESKeySpec转换成SecretKey对象
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
-        SecretKey securekey = keyFactory.generateSecret(dks);
-
-        // Cipher对象实际完成加密操作
-        Cipher cipher = Cipher.getInstance(DES);
-
-        // 用密钥初始化Cipher对象
-        cipher.init(Cipher.ENCRYPT_MODE, securekey, sr);
-
-        return cipher.doFinal(data);
-    }
-
-    /**
-     * Description 根据键值进行解密
-     * @param data
-     * @param key  加密键byte数组
-     * @return
-     * @throws Exception
-     */
-    private static byte[] decrypt(byte[] data, byte[] key) throws Exception {
-        // 生成一个可信任的随机数源
-        SecureRandom sr = new SecureRandom();
-
-        // 从原始密钥数据创建DESKeySpec对象
-        DESKeySpec dks = new DESKeySpec(key);
-
-        // 创建一个密钥工厂，然后用它把DESKeySpec转换成SecretKey对象
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
-        SecretKey securekey = keyFactory.generateSecret(dks);
-
-        // Cipher对象实际完成解密操作
-        Cipher cipher = Cipher.getInstance(DES);
-
-        // 用密钥初始化Cipher对象
-        cipher.init(Cipher.DECRYPT_MODE, securekey, sr);
-
-        return cipher.doFinal(data);
+        return CredentialCodecs.get(CredentialCodecs.DES, key).decrypt(data);
     }
 }
@@ -1,6 +1,9 @@
 package com.isumi.util;
 
 /**
+ * 线程级的路由上下文。线程池中的请求线程必须在每个请求结束时调用{@link #reset()},
+ * 否则主备切换标记和写入位置会带到同一线程的后续请求
+ *
  * @author Hikin Yao
  * @version 1.0
  */
@@ -14,8 +17,29 @@ public class DynamicDbContext {
      */
     private static String SLAVE_DB_TYPE = "slave_db";
 
+    /**
+     * 主库写入位置无法获取时的占位值,此时备库读请求全部走主库
+     */
+    public static final String UNKNOWN_POSITION = "unknown";
+
     private static final ThreadLocal<String> bsDBContext = new ThreadLocal<String>();
 
+    /**
+     * 当前线程最后一次写入后的主库复制位置(GTID或binlog位置)及记录时间
+     */
+    private static final ThreadLocal<ReplicationPosition> replicationPosition = new ThreadLocal<ReplicationPosition>();
+
+    private static final class ReplicationPosition {
+
+        private final String position;
+        private final long   capturedMillis;
+
+        ReplicationPosition(String position, long capturedMillis) {
+            this.position = position;
+            this.capturedMillis = capturedMillis;
+        }
+    }
+
     public static boolean switchToMasterDB() {
         bsDBContext.set(MASTER_DB_TYPE);
         return true;
@@ -37,7 +61,48 @@ public class DynamicDbContext {
         return result;
     }
 
+    /**
+     * 记录写入后的复制位置,之后的备库读请求只路由到已同步到该位置的备库
+     */
+    public static void setReplicationPosition(String position) {
+        if (position == null) {
+            replicationPosition.remove();
+        } else {
+            replicationPosition.set(new ReplicationPosition(position,
+                System.currentTimeMillis()));
+        }
+    }
+
+    public static String getReplicationPosition() {
+        ReplicationPosition current = replicationPosition.get();
+        return current != null ? current.position : null;
+    }
+
+    /**
+     * 只返回maxAgeMillis内记录的位置,过期的位置(包括UNKNOWN_POSITION)被清除。
+     * 没有调用reset()的线程因此不会一直带着旧位置读备库或一直走主库
+     */
+    public static String getReplicationPosition(long maxAgeMillis) {
+        ReplicationPosition current = replicationPosition.get();
+        if (current == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - current.capturedMillis > maxAgeMillis) {
+            replicationPosition.remove();
+            return null;
+        }
+        return current.position;
+    }
+
+    public static void clearReplicationPosition() {
+        replicationPosition.remove();
+    }
+
+    /**
+     * 请求结束时调用,清除主备切换标记和写入位置
+     */
     public static void reset() {
         bsDBContext.remove();
+        replicationPosition.remove();
     }
 }
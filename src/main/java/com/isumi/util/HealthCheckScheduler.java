@@ -0,0 +1,217 @@
+package com.isumi.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One small pool of daemon threads running the health checks of every data source in the
+ * JVM, instead of one thread or executor per data source.
+ * <p>A registered check runs every <code>intervalMillis</code>, right away when
+ * {@link Handle#trigger()} is called (e.g. from a circuit breaker listener), and never
+ * concurrently with itself. While the check reports that something is still unhealthy the
+ * interval doubles up to <code>maxIntervalMillis</code>, and goes back to
+ * <code>intervalMillis</code> once it reports healthy again.
+ * <p>The threads are started with the first registered check and stopped when the last one
+ * is cancelled.
+ */
+public final class HealthCheckScheduler {
+
+    private static final Logger               LOGGER   = LoggerFactory
+        .getLogger(HealthCheckScheduler.class);
+
+    private static final HealthCheckScheduler INSTANCE = new HealthCheckScheduler();
+
+    public interface Check {
+
+        /**
+         * @return true if everything checked is healthy, false to back off
+         */
+        boolean run() throws Exception;
+    }
+
+    private final ReentrantLock               lock     = new ReentrantLock();
+    private final Set<Handle>                 handles  = ConcurrentHashMap.<Handle> newKeySet();
+    private ScheduledThreadPoolExecutor       executor;
+
+    private HealthCheckScheduler() {
+    }
+
+    public static HealthCheckScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    public Handle register(String name, Check check, long intervalMillis, long maxIntervalMillis) {
+        Handle handle = new Handle(name, check, intervalMillis, maxIntervalMillis);
+        lock.lock();
+        try {
+            if (executor == null) {
+                executor = newExecutor();
+            }
+            handle.executor = executor;
+            handles.add(handle);
+        } finally {
+            lock.unlock();
+        }
+        handle.schedule(handle.intervalMillis);
+        return handle;
+    }
+
+    private void unregister(Handle handle) {
+        lock.lock();
+        try {
+            if (handles.remove(handle) && handles.isEmpty() && executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of registered checks
+     */
+    public int size() {
+        return handles.size();
+    }
+
+    private static ScheduledThreadPoolExecutor newExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "-dds-health-check-" + seq.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    public final class Handle {
+
+        private final String                         name;
+        private final Check                          check;
+        private final long                           intervalMillis;
+        private final long                           maxIntervalMillis;
+        private final ReentrantLock                  runLock  = new ReentrantLock();
+        private final AtomicInteger                  requests = new AtomicInteger();
+        private volatile ScheduledThreadPoolExecutor executor;
+        private volatile ScheduledFuture<?>          next;
+        private volatile boolean                     cancelled;
+        private long                                 delayMillis;
+
+        private final Runnable                       runTask   = new Runnable() {
+            @Override
+            public void run() {
+                int missed = 1;
+                do {
+                    runOnce();
+                    missed = requests.addAndGet(-missed);
+                } while (missed != 0);
+            }
+        };
+
+        private final Runnable                       timerTask = new Runnable() {
+            @Override
+            public void run() {
+                trigger();
+            }
+        };
+
+        Handle(String name, Check check, long intervalMillis, long maxIntervalMillis) {
+            this.name = name;
+            this.check = check;
+            this.intervalMillis = Math.max(1L, intervalMillis);
+            this.maxIntervalMillis = Math.max(this.intervalMillis, maxIntervalMillis);
+            this.delayMillis = this.intervalMillis;
+        }
+
+        /**
+         * Run the check as soon as possible; triggers that arrive while it runs are
+         * coalesced into one more run.
+         */
+        public void trigger() {
+            if (!cancelled && requests.getAndIncrement() == 0) {
+                try {
+                    executor.execute(runTask);
+                } catch (RejectedExecutionException e) {
+                    requests.set(0);
+                }
+            }
+        }
+
+        /**
+         * Stop the check, waiting for a run in progress to finish.
+         */
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> pending = next;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            runLock.lock();
+            runLock.unlock();
+            unregister(this);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void runOnce() {
+            runLock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                ScheduledFuture<?> pending = next;
+                if (pending != null) {
+                    pending.cancel(false);
+                }
+                boolean healthy;
+                try {
+                    healthy = check.run();
+                } catch (Throwable t) {
+                    LOGGER.error("[Health check " + name + "] error", t);
+                    healthy = false;
+                }
+                delayMillis = healthy ? intervalMillis : Math.min(maxIntervalMillis,
+                    delayMillis * 2);
+                schedule(delayMillis);
+            } finally {
+                runLock.unlock();
+            }
+        }
+
+        private void schedule(long delay) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                next = executor.schedule(timerTask, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // scheduler stopped, handle was cancelled meanwhile
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "HealthCheck[" + name + ", next in " + delayMillis + "ms]";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.isumi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches one properties file and calls the listener after it changed.
+ * <p>Editors and deploy scripts usually touch a file several times in a row (truncate,
+ * write, rename, chmod...), so events are debounced: the listener runs once, after no event
+ * was seen for <code>debounceMillis</code>. The directory is watched rather than the file,
+ * which also catches a file replaced by rename.
+ */
+public class PropertiesFileWatcher implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PropertiesFileWatcher.class);
+
+    public interface Listener {
+
+        void onChange(File file) throws Exception;
+    }
+
+    private final File          file;
+    private final long          debounceMillis;
+    private final Listener      listener;
+    private final WatchService  watchService;
+    private final Thread        thread;
+    private volatile boolean    closed;
+
+    public PropertiesFileWatcher(File file, long debounceMillis, Listener listener)
+                                                                                   throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.debounceMillis = Math.max(0L, debounceMillis);
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParentFile().toPath().register(watchService,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this, "-dds-config-watcher-" + file.getName());
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long due = -1L;
+        try {
+            while (!closed) {
+                WatchKey key;
+                if (due < 0) {
+                    key = watchService.take();
+                } else {
+                    key = watchService.poll(Math.max(0L, due - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                }
+                if (key == null) {// quiet for debounceMillis
+                    due = -1L;
+                    fire();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                        || file.getName().equals(((Path) event.context()).toString())) {
+                        due = System.currentTimeMillis() + debounceMillis;
+                    }
+                }
+                if (!key.reset()) {
+                    LOGGER.error("Stop watching " + file + ", its directory is no longer accessible");
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void fire() {
+        if (closed || !file.isFile()) {
+            return;
+        }
+        try {
+            listener.onChange(file);
+        } catch (Throwable t) {
+            LOGGER.error("Reload of " + file + " failed", t);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // nothing to release
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
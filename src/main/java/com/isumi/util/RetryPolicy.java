@@ -0,0 +1,87 @@
+package com.isumi.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Back-off between connection attempts of AbstractDataSource.getConnectionWithLock: full
+ * jitter exponential back-off (a random delay in [0, min(maxDelay, baseDelay * 2^attempt)])
+ * capped by a total time budget, so that threads failing together do not retry together.
+ */
+public class RetryPolicy {
+
+    /** Retry counters are kept per attempt number, the last one also counts later attempts. */
+    public static final int TRACKED_ATTEMPTS = 8;
+
+    private final long        baseDelayMillis;
+    private final long        maxDelayMillis;
+    private final long        budgetMillis;
+
+    private final LongAdder[] retries   = new LongAdder[TRACKED_ATTEMPTS];
+    private final LongAdder   exhausted = new LongAdder();
+
+    public RetryPolicy(long baseDelayMillis, long maxDelayMillis, long budgetMillis) {
+        this.baseDelayMillis = Math.max(1L, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.budgetMillis = Math.max(0L, budgetMillis);
+        for (int i = 0; i < TRACKED_ATTEMPTS; i++) {
+            retries[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param attempt    number of retries already done, 0 for the first failure
+     * @param usedMillis time spent so far in this borrow
+     * @return milliseconds to sleep before the next attempt, or -1 if the budget is spent
+     */
+    public long nextDelay(int attempt, long usedMillis) {
+        long remain = budgetMillis - usedMillis;
+        if (remain <= 0) {
+            exhausted.increment();
+            return -1L;
+        }
+        long cap = maxDelayMillis;
+        if (attempt < Long.numberOfLeadingZeros(baseDelayMillis) - 1) {
+            cap = Math.min(maxDelayMillis, baseDelayMillis << attempt);
+        }
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        retries[Math.min(attempt, TRACKED_ATTEMPTS - 1)].increment();
+        return Math.min(delay, remain);
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * @return number of retries scheduled, index i is the (i+1)th retry of a borrow
+     */
+    public long[] getRetryCounts() {
+        long[] counts = new long[TRACKED_ATTEMPTS];
+        for (int i = 0; i < TRACKED_ATTEMPTS; i++) {
+            counts[i] = retries[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of borrows that ran out of retry budget
+     */
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy[base=" + baseDelayMillis + "ms, max=" + maxDelayMillis + "ms, budget="
+               + budgetMillis + "ms]";
+    }
+}
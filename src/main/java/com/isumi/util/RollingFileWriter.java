@@ -0,0 +1,78 @@
+package com.isumi.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends lines to a file and rolls it over once it exceeds <code>maxBytes</code>:
+ * <code>name</code> becomes <code>name.1</code>, <code>name.1</code> becomes
+ * <code>name.2</code>, and so on, keeping at most <code>maxFiles</code> files.
+ * <p>Not thread-safe, meant for a single writer thread.
+ */
+public class RollingFileWriter implements Closeable {
+
+    private final File file;
+    private final File maxFile;
+    private final long maxBytes;
+    private final int  maxFiles;
+    private Writer     writer;
+    private long       size;
+
+    public RollingFileWriter(File file, long maxBytes, int maxFiles) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.maxBytes = Math.max(1024L, maxBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxFile = new File(this.file.getPath() + "." + (this.maxFiles - 1));
+        this.file.getParentFile().mkdirs();
+        open();
+    }
+
+    private void open() throws IOException {
+        size = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+            "UTF-8"));
+    }
+
+    public void writeLine(CharSequence line) throws IOException {
+        if (size >= maxBytes) {
+            roll();
+        }
+        writer.append(line).append('\n');
+        size += line.length() + 1;// chars, close enough to bytes for rolling
+    }
+
+    private void roll() throws IOException {
+        writer.close();
+        if (maxFiles == 1) {
+            file.delete();
+        } else {
+            maxFile.delete();
+            for (int i = maxFiles - 2; i >= 1; i--) {
+                File from = new File(file.getPath() + "." + i);
+                if (from.exists()) {
+                    from.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            file.renameTo(new File(file.getPath() + ".1"));
+        }
+        open();
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -1,22 +1,49 @@
 package com.isumi.util;
 
 import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.sql.Connection;
+import java.sql.Driver;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.Properties;
 
 import com.isumi.AbstractDataSource;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.tomcat.jdbc.pool.ConnectionPool;
 import org.apache.tomcat.jdbc.pool.DataSource;
 import org.apache.tomcat.jdbc.pool.DataSourceFactory;
+import org.apache.tomcat.jdbc.pool.PoolConfiguration;
+import org.apache.tomcat.jdbc.pool.PoolExhaustedException;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 public class TomcatDataSource extends AbstractDataSource {
 
+    private static final Logger LOGGER            = LoggerFactory.getLogger(TomcatDataSource.class);
+
+    /**
+     * ConnectionPool.borrowConnection(int wait, String username, String password): with a
+     * wait of 0 it takes an idle connection or opens a new one below maxActive, and throws
+     * PoolExhaustedException instead of waiting. Tomcat only calls it with 0 from
+     * getConnectionAsync, which queues a future when the pool is exhausted.
+     */
+    private static final Method BORROW_CONNECTION = poolMethod("borrowConnection", int.class,
+                                                        String.class, String.class);
+    private static final Method SETUP_CONNECTION  = poolMethod("setupConnection",
+                                                        PooledConnection.class);
 
     private DataSource tomcatDataSource = null;
 
+    /**
+     * maxActive the pool was created with, its busy queue can't hold more connections.
+     */
+    private int        poolCapacity;
+
     @Override
     public PrintWriter getLogWriter() throws SQLException {
         return tomcatDataSource.getLogWriter();
@@ -57,6 +84,45 @@ public class TomcatDataSource extends AbstractDataSource {
         return tomcatDataSource.getConnection(username, password);
     }
 
+    @Override
+    protected Connection pollConnection(boolean needParams, String username, String password)
+                                                                                             throws SQLException {
+        ConnectionPool pool = tomcatDataSource.createPool();
+        if (BORROW_CONNECTION == null || SETUP_CONNECTION == null) {
+            // best effort only, another borrower may take the last idle connection first
+            if (pool.getIdle() == 0 && pool.getSize() >= pool.getPoolProperties().getMaxActive()) {
+                return null;
+            }
+            return super.pollConnection(needParams, username, password);
+        }
+        boolean alternate = needParams && tomcatDataSource.isAlternateUsernameAllowed();
+        try {
+            Object pooled = BORROW_CONNECTION.invoke(pool, 0, alternate ? username : null,
+                alternate ? password : null);
+            return (Connection) SETUP_CONNECTION.invoke(pool, pooled);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            if (cause instanceof PoolExhaustedException) {
+                return null;
+            }
+            throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static Method poolMethod(String name, Class<?>... parameterTypes) {
+        try {
+            Method method = ConnectionPool.class.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+        } catch (Exception e) {
+            LOGGER.warn("ConnectionPool." + name
+                        + " not accessible, async borrows may wait for the pool: " + e);
+            return null;
+        }
+    }
+
     @Override
     protected long getMaxWait() {
         return tomcatDataSource.getPoolProperties().getMaxWait();
@@ -68,6 +134,7 @@ public class TomcatDataSource extends AbstractDataSource {
             tomcatDataSource.close();
         }
         tomcatDataSource = new DataSource(DataSourceFactory.parsePoolProperties(properties));
+        poolCapacity = tomcatDataSource.getPoolProperties().getMaxActive();
         super.setProperties(properties);
     }
 
@@ -84,6 +151,76 @@ public class TomcatDataSource extends AbstractDataSource {
         return tomcatDataSource.getMaxActive();
     }
 
+    @Override
+    protected Connection openProbeConnection() throws SQLException {
+        PoolConfiguration config = tomcatDataSource.getPoolProperties();
+        Driver driver;
+        try {
+            driver = (Driver) Class
+                .forName(config.getDriverClassName(), true, getClass().getClassLoader())
+                .getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new SQLException("Can't load driver " + config.getDriverClassName(), e);
+        }
+        Properties properties = new Properties();
+        if (config.getDbProperties() != null) {
+            properties.putAll(config.getDbProperties());
+        }
+        if (config.getUsername() != null) {
+            properties.setProperty("user", config.getUsername());
+        }
+        if (config.getPassword() != null) {
+            properties.setProperty("password", config.getPassword());
+        }
+        Connection connection = driver.connect(config.getUrl(), properties);
+        if (connection == null) {
+            throw new SQLException("Driver " + config.getDriverClassName() + " rejected url "
+                                   + config.getUrl());
+        }
+        return connection;
+    }
+
+    @Override
+    protected int getActiveCount() {
+        ConnectionPool pool = tomcatDataSource.getPool();
+        return pool != null ? pool.getActive() : 0;
+    }
+
+    @Override
+    protected int getIdleCount() {
+        ConnectionPool pool = tomcatDataSource.getPool();
+        return pool != null ? pool.getIdle() : 0;
+    }
+
+    @Override
+    protected boolean canResize(Properties properties) {
+        return NumberUtils.toInt(properties.getProperty("maxActive"),
+            PoolProperties.DEFAULT_MAX_ACTIVE) <= poolCapacity;
+    }
+
+    @Override
+    protected boolean resize(Properties properties) {
+        if (!canResize(properties)) {
+            return false;
+        }
+        PoolConfiguration config = tomcatDataSource.getPoolProperties();
+        int maxActive = NumberUtils.toInt(properties.getProperty("maxActive"),
+            PoolProperties.DEFAULT_MAX_ACTIVE);
+        config.setMaxActive(maxActive);
+        config.setMaxIdle(NumberUtils.toInt(properties.getProperty("maxIdle"), maxActive));
+        config.setMinIdle(NumberUtils.toInt(properties.getProperty("minIdle"),
+            config.getInitialSize()));
+        config.setInitialSize(NumberUtils.toInt(properties.getProperty("initialSize"),
+            config.getInitialSize()));
+        return true;
+    }
+
+    @Override
+    protected int getPoolSize() {
+        ConnectionPool pool = tomcatDataSource.getPool();
+        return pool != null ? pool.getSize() : 0;
+    }
+
     @Override
     protected javax.sql.DataSource getRealDataSource() {
         return tomcatDataSource;
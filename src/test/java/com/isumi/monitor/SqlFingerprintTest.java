@@ -0,0 +1,90 @@
+package com.isumi.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SqlFingerprintTest {
+
+    @Test
+    public void literalsBecomePlaceholders() {
+        assertEquals("select * from t where a = ? and b = ?",
+            SqlFingerprint.normalize("SELECT * FROM t WHERE a = 'x' AND b = 12"));
+        assertEquals("select * from t where a = ? and b = ?",
+            SqlFingerprint.normalize("select * from t where a = 1.5e3 and b = 0x1F"));
+        assertEquals("select * from t where a = ?",
+            SqlFingerprint.normalize("select * from t where a = 'it''s \\' here'"));
+    }
+
+    @Test
+    public void doubleQuotedStringsAreLiterals() {
+        assertEquals("select * from t where a = ?",
+            SqlFingerprint.normalize("select * from t where a = \"x\""));
+        assertEquals("select * from t where a = ? and b = ?",
+            SqlFingerprint.normalize("select * from t where a = \"x \"\"y\"\" -- z\" and b = 1"));
+    }
+
+    @Test
+    public void backtickIdentifiersAreKept() {
+        assertEquals("select `1col`, `Name` from `t` where `2` = ?",
+            SqlFingerprint.normalize("select `1col`, `Name` from `t` where `2` = 3"));
+        assertEquals("select `a``'b` from t", SqlFingerprint.normalize("select `a``'b` from t"));
+        assertEquals("select col1, t2.c3 from t2",
+            SqlFingerprint.normalize("select col1, t2.c3 from t2"));
+    }
+
+    @Test
+    public void inAndValuesListsCollapse() {
+        assertEquals("select * from t where id in (?)",
+            SqlFingerprint.normalize("select * from t where id in (1, 2, 3)"));
+        assertEquals("select * from t where id not in(?)",
+            SqlFingerprint.normalize("select * from t where id NOT IN(?,?,?)"));
+        assertEquals("insert into t (a, b) values (?)",
+            SqlFingerprint.normalize("insert into t (a, b) values ('x', 2)"));
+        assertEquals("insert into t values (?), (?)",
+            SqlFingerprint.normalize("insert into t values (1, 2), (3, 4)"));
+        assertEquals("insert into t value (?, now())",
+            SqlFingerprint.normalize("insert into t value (?, now())"));
+    }
+
+    @Test
+    public void otherListsDoNotCollapse() {
+        assertEquals("select ?, ? from dual", SqlFingerprint.normalize("select 1, 2 from dual"));
+        assertEquals("select * from t limit ?, ?",
+            SqlFingerprint.normalize("select * from t limit 10, 20"));
+        assertEquals("select coalesce(a, ?, ?) from t",
+            SqlFingerprint.normalize("select coalesce(a, 1, 2) from t"));
+        assertEquals("select * from t where a in (f(?, ?))",
+            SqlFingerprint.normalize("select * from t where a in (f(1, 2))"));
+        assertEquals("select * from t where login(?, ?)",
+            SqlFingerprint.normalize("select * from t where login(1, 2)"));
+    }
+
+    @Test
+    public void commentsAndWhitespaceAreDropped() {
+        assertEquals("select a from t",
+            SqlFingerprint.normalize("  select /* hint */ a\n\tfrom t -- trailing\n "));
+    }
+
+    @Test
+    public void normalizedTextIsBounded() {
+        StringBuilder sql = new StringBuilder("select * from t where a in (");
+        for (int i = 0; i < 5000; i++) {
+            sql.append("'v").append(i).append("', ");
+        }
+        sql.append("'end') and b = `").append(new String(new char[2000]).replace('\0', 'x'))
+            .append('`');
+        String fingerprint = SqlFingerprint.normalize(sql.toString());
+        assertTrue(fingerprint, fingerprint.startsWith("select * from t where a in (?) and b = `xx"));
+        assertEquals(SqlFingerprint.MAX_LENGTH, fingerprint.length());
+    }
+
+    @Test
+    public void fingerprintsAreCached() {
+        String sql = "select * from cached where id = ?";
+        assertSame(SqlFingerprint.of(sql), SqlFingerprint.of(sql));
+        assertEquals("<unknown>", SqlFingerprint.of(null));
+    }
+}
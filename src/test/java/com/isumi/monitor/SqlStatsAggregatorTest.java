@@ -0,0 +1,113 @@
+package com.isumi.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SqlStatsAggregatorTest {
+
+    @Test
+    public void recordsPerFingerprint() {
+        SqlStatsAggregator aggregator = new SqlStatsAggregator(8);
+        aggregator.record("select * from t where id = 1", 2000000L, 1, false);
+        aggregator.record("select * from t where id = 2", 4000000L, 0, true);
+        aggregator.record("update t set a = 1", 1000000L, 3, false);
+
+        List<SqlStats> stats = aggregator.snapshot();
+        assertEquals(2, stats.size());
+        SqlStats select = stats.get(0);// by descending total time
+        assertEquals("select * from t where id = ?", select.getFingerprint());
+        assertEquals(2, select.getCalls());
+        assertEquals(0, select.getOverestimate());
+        assertEquals(6000, select.getTotalMicros());
+        assertEquals(4000, select.getMaxMicros());
+        assertEquals(1, select.getRows());
+        assertEquals(1, select.getErrors());
+        assertEquals("update t set a = ?", stats.get(1).getFingerprint());
+    }
+
+    @Test
+    public void newFingerprintEvictsTheLeastFrequentAndInheritsItsCount() {
+        SqlStatsAggregator aggregator = new SqlStatsAggregator(4);
+        record(aggregator, "select * from a", 5);
+        record(aggregator, "select * from b", 4);
+        record(aggregator, "select * from c", 2);
+        record(aggregator, "select * from d", 3);
+
+        record(aggregator, "select * from e", 1);
+
+        Map<String, SqlStats> stats = byFingerprint(aggregator);
+        assertEquals(4, stats.size());
+        assertNull(stats.get("select * from c"));
+        SqlStats admitted = stats.get("select * from e");
+        assertEquals(3, admitted.getCalls());
+        assertEquals(2, admitted.getOverestimate());
+        assertEquals(5, stats.get("select * from a").getCalls());
+        assertEquals(0, stats.get("select * from a").getOverestimate());
+    }
+
+    @Test
+    public void evictionFollowsTheLastScan() {
+        // capacity 16 evicts in batches of 2: both victims are picked by one scan
+        SqlStatsAggregator aggregator = new SqlStatsAggregator(16);
+        for (int i = 0; i < 16; i++) {
+            record(aggregator, "select * from t" + (char) ('a' + i), 10 + i);
+        }
+
+        record(aggregator, "select * from new1", 1);
+        record(aggregator, "select * from new2", 1);
+
+        Map<String, SqlStats> stats = byFingerprint(aggregator);
+        assertEquals(16, stats.size());
+        assertNull(stats.get("select * from ta"));
+        assertNull(stats.get("select * from tb"));
+        // new1 now has the fewest calls but the second admission still evicted tb
+        assertEquals(11, stats.get("select * from new1").getCalls());
+        assertEquals(12, stats.get("select * from new2").getCalls());
+        assertEquals(11, stats.get("select * from new2").getOverestimate());
+
+        record(aggregator, "select * from new3", 1);
+        stats = byFingerprint(aggregator);
+        assertNull(stats.get("select * from new1"));
+        assertEquals(12, stats.get("select * from new3").getCalls());
+    }
+
+    @Test
+    public void frequentStatementsStayTracked() {
+        SqlStatsAggregator aggregator = new SqlStatsAggregator(8);
+        for (int i = 0; i < 1000; i++) {
+            aggregator.record("select * from hot where id = " + i, 1000L, 1, false);
+            aggregator.record("select * from cold_" + Integer.toHexString(i).replace('0', 'x')
+                              + " where a = ?", 1000L, 1, false);
+        }
+
+        Map<String, SqlStats> stats = byFingerprint(aggregator);
+        assertEquals(8, stats.size());
+        SqlStats hot = stats.get("select * from hot where id = ?");
+        assertNotNull(hot);
+        assertTrue(hot.getCalls() - hot.getOverestimate() >= 1000);
+        assertFalse(stats.containsKey("select * from cold_x where a = ?"));
+    }
+
+    private static void record(SqlStatsAggregator aggregator, String sql, int calls) {
+        for (int i = 0; i < calls; i++) {
+            aggregator.record(sql, 1000L, 0, false);
+        }
+    }
+
+    private static Map<String, SqlStats> byFingerprint(SqlStatsAggregator aggregator) {
+        Map<String, SqlStats> result = new HashMap<String, SqlStats>();
+        for (SqlStats stats : aggregator.snapshot()) {
+            result.put(stats.getFingerprint(), stats);
+        }
+        return result;
+    }
+}
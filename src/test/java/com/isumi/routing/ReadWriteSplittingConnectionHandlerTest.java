@@ -0,0 +1,117 @@
+package com.isumi.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReadWriteSplittingConnectionHandlerTest {
+
+    @Test
+    public void plainReadsGoToSlave() {
+        assertRead("select * from t where id = 1");
+        assertRead("  SELECT 1");
+        assertRead("(select a from t) union (select a from u)");
+        assertRead("show tables");
+        assertRead("explain select * from t");
+        assertRead("desc t");
+        assertRead("select 1;");
+        assertRead("select 1;  -- done");
+    }
+
+    @Test
+    public void leadingCommentsAreSkipped() {
+        assertRead("/* hint */ select 1");
+        assertRead("-- comment\nselect 1");
+        assertRead("# comment\nselect 1");
+        assertRead("select /*!40001 SQL_NO_CACHE */ * from t");
+    }
+
+    @Test
+    public void writesAndUnknownStatementsGoToMaster() {
+        assertWrite(null);
+        assertWrite("");
+        assertWrite("insert into t values (1)");
+        assertWrite("update t set a = 1");
+        assertWrite("delete from t");
+        assertWrite("call proc()");
+        assertWrite("with x as (select 1) select * from x");
+        assertWrite("-- select\nupdate t set a = 1");
+        assertWrite("/* select */ delete from t");
+    }
+
+    @Test
+    public void lockingReadsGoToMaster() {
+        assertWrite("select * from t where id = 1 for update");
+        assertWrite("select * from t for share");
+        assertWrite("select * from t lock in share mode");
+        assertWrite("SELECT * FROM t FOR\nUPDATE");
+    }
+
+    @Test
+    public void selectIntoGoesToMaster() {
+        assertWrite("select * from t into outfile '/tmp/x'");
+        assertWrite("select * into dumpfile '/tmp/x' from t");
+        assertWrite("select a into @v from t");
+        assertWrite("select a from t into @v");
+    }
+
+    @Test
+    public void advisoryLocksGoToMaster() {
+        assertWrite("select get_lock('a', 1)");
+        assertWrite("SELECT RELEASE_LOCK('a')");
+        assertWrite("select release_all_locks()");
+        assertWrite("select is_free_lock('a')");
+        assertWrite("select is_used_lock ('a')");
+    }
+
+    @Test
+    public void multipleStatementsGoToMaster() {
+        assertWrite("select 1; delete from t");
+        assertWrite("select 1;delete from t");
+        assertWrite("select 1; select 2");
+    }
+
+    @Test
+    public void keywordsInLiteralsAndCommentsAreIgnored() {
+        assertRead("select * from t where a = 'x; delete from t'");
+        assertRead("select * from t where a = \"into\"");
+        assertRead("select 'get_lock(1)' from t");
+        assertRead("select `into`, `for update` from t");
+        assertRead("select a /* into outfile */ from t");
+        assertRead("select a -- ; delete from t\nfrom t");
+        assertRead("select a # into @v\nfrom t");
+        assertRead("select 'it''s; into' from t");
+        assertRead("select 'it\\'s; into' from t");
+        assertRead("select `a``b` from t");
+    }
+
+    @Test
+    public void executableCommentsAreChecked() {
+        assertWrite("select a from t /*!50000 into outfile '/tmp/x' */");
+        assertWrite("select 1 /*!; delete from t */");
+    }
+
+    @Test
+    public void unterminatedLiteralDoesNotHideTheStatement() {
+        assertRead("select 'abc");
+        assertWrite("update t set a = 'abc");
+    }
+
+    @Test
+    public void blanksLiteralsIdentifiersAndComments() {
+        assertEquals("select   from   t where a =  ", ReadWriteSplittingConnectionHandler
+            .blankLiterals("select `c` from /* x */ t where a = 'v'"));
+        assertEquals("select   1  ",
+            ReadWriteSplittingConnectionHandler.blankLiterals("select /*!50000 1 */"));
+    }
+
+    private static void assertRead(String sql) {
+        assertTrue(sql, ReadWriteSplittingConnectionHandler.isReadOnlyStatement(sql));
+    }
+
+    private static void assertWrite(String sql) {
+        assertFalse(sql, ReadWriteSplittingConnectionHandler.isReadOnlyStatement(sql));
+    }
+}
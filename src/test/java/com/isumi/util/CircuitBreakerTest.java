@@ -0,0 +1,150 @@
+package com.isumi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final long LONG = 60000L;
+
+    @Test
+    public void tripsAtFailureRateOnceMinimumCallsAreSeen() {
+        // 50% of at least 4 calls
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 4, 50, LONG, 1);
+        fail(breaker, false);
+        fail(breaker, false);
+        fail(breaker, false);
+        assertTrue("3 calls are below minimumCalls", breaker.isClosed());
+
+        succeed(breaker);
+        assertTrue(breaker.isClosed());
+        fail(breaker, false);// 4 failures out of 5
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.DENIED, breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void staysClosedBelowFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 4, 50, LONG, 1);
+        for (int i = 0; i < 10; i++) {
+            succeed(breaker);
+            succeed(breaker);
+            fail(breaker, false);
+        }
+        assertTrue(breaker.isClosed());
+        assertEquals(10, breaker.getWindowFailures());
+        assertEquals(30, breaker.getWindowCalls());
+    }
+
+    @Test
+    public void fatalErrorOpensAtOnce() {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 100, 100, LONG, 1);
+        succeed(breaker);
+        fail(breaker, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void noHalfOpenBeforeOpenMillis() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 1, 100, 200L, 1);
+        fail(breaker, true);
+        assertEquals(CircuitBreaker.DENIED, breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(300L);
+        assertEquals(CircuitBreaker.PROBE, breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenLimitsConcurrentProbes() {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 1, 100, 0L, 2);
+        fail(breaker, true);
+        int first = breaker.tryAcquirePermission();
+        int second = breaker.tryAcquirePermission();
+        assertEquals(CircuitBreaker.PROBE, first);
+        assertEquals(CircuitBreaker.PROBE, second);
+        assertEquals(CircuitBreaker.DENIED, breaker.tryAcquirePermission());
+
+        breaker.release(first);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.PROBE, breaker.tryAcquirePermission());
+        assertEquals(CircuitBreaker.DENIED, breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void probeSuccessCloses() {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 1, 100, 0L, 2);
+        fail(breaker, true);
+        int first = breaker.tryAcquirePermission();
+        int second = breaker.tryAcquirePermission();
+
+        assertTrue(breaker.onSuccess(first));
+        assertTrue(breaker.isClosed());
+        assertEquals(0, breaker.getWindowCalls());
+        // the other probe ending later neither reopens nor closes again
+        assertFalse(breaker.onSuccess(second));
+        assertEquals(CircuitBreaker.PERMITTED, breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void probeFailureReopens() {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 1, 100, 0L, 1);
+        fail(breaker, true);
+        int probe = breaker.tryAcquirePermission();
+        assertEquals(CircuitBreaker.PROBE, probe);
+
+        breaker.onFailure(probe, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void failuresExpireWithTheWindow() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("t", 200L, 3, 100, LONG, 1);
+        fail(breaker, false);
+        fail(breaker, false);
+        assertEquals(2, breaker.getWindowFailures());
+
+        Thread.sleep(300L);
+        assertEquals(0, breaker.getWindowCalls());
+        fail(breaker, false);
+        assertTrue("the first two failures left the window", breaker.isClosed());
+        fail(breaker, false);
+        fail(breaker, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void tripAndResetNotifyListeners() {
+        CircuitBreaker breaker = new CircuitBreaker("t", LONG, 1, 100, LONG, 1);
+        final List<String> changes = new ArrayList<String>();
+        breaker.addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State from,
+                                      CircuitBreaker.State to) {
+                changes.add(from + "->" + to);
+            }
+        });
+
+        breaker.trip();
+        assertEquals(CircuitBreaker.DENIED, breaker.tryAcquirePermission());
+        breaker.reset();
+        assertTrue(breaker.isClosed());
+        assertEquals(Arrays.asList("CLOSED->OPEN", "OPEN->CLOSED"), changes);
+    }
+
+    private static void succeed(CircuitBreaker breaker) {
+        breaker.onSuccess(breaker.tryAcquirePermission());
+    }
+
+    private static void fail(CircuitBreaker breaker, boolean fatal) {
+        breaker.onFailure(breaker.tryAcquirePermission(), fatal);
+    }
+}
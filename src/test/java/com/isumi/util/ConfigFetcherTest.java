@@ -0,0 +1,297 @@
+package com.isumi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ConfigFetcherTest {
+
+    private static final Charset UTF8          = Charset.forName("UTF-8");
+    private static final String  ETAG          = "\"v1\"";
+    private static final String  LAST_MODIFIED = "Wed, 01 Jan 2025 00:00:00 GMT";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer           server;
+    private ExecutorService      serverExecutor;
+    private String               baseUrl;
+    private volatile HttpHandler handler;
+    private File                 targetDir;
+    private ConfigFetcher        fetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handler.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/config";
+        targetDir = folder.newFolder("target");
+        fetcher = new ConfigFetcher();
+        fetcher.setConnectTimeoutMillis(1000);
+        fetcher.setReadTimeoutMillis(2000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void fetchesFilesInParallel() throws Exception {
+        final CountDownLatch bothArrived = new CountDownLatch(2);
+        handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bothArrived.countDown();
+                try {
+                    // a sequential fetch would never get the second request in
+                    if (!bothArrived.await(5, TimeUnit.SECONDS)) {
+                        exchange.sendResponseHeaders(500, -1);
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                respond(exchange, 200, body(exchange), null, null);
+            }
+        };
+        fetcher.setThreads(2);
+
+        Map<String, ConfigFetcher.Result> results = fetcher.fetch(baseUrl, targetDir,
+            Arrays.asList("a.properties", "b.properties"));
+
+        assertEquals(Arrays.asList("a.properties", "b.properties"),
+            new ArrayList<String>(results.keySet()));
+        assertEquals(ConfigFetcher.Result.DOWNLOADED, results.get("a.properties"));
+        assertEquals(ConfigFetcher.Result.DOWNLOADED, results.get("b.properties"));
+        assertEquals("/config/a.properties", read(new File(targetDir, "a.properties")));
+        assertEquals("/config/b.properties", read(new File(targetDir, "b.properties")));
+    }
+
+    @Test
+    public void sendsValidatorsBackAndKeepsCopyOn304() throws Exception {
+        final Map<String, String> requestHeaders = new ConcurrentHashMap<String, String>();
+        handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                String ifModifiedSince = exchange.getRequestHeaders().getFirst(
+                    "If-Modified-Since");
+                if (ifNoneMatch != null) {
+                    requestHeaders.put("If-None-Match", ifNoneMatch);
+                }
+                if (ifModifiedSince != null) {
+                    requestHeaders.put("If-Modified-Since", ifModifiedSince);
+                }
+                if (ETAG.equals(ifNoneMatch)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                respond(exchange, 200, "key=value", ETAG, LAST_MODIFIED);
+            }
+        };
+
+        assertEquals(ConfigFetcher.Result.DOWNLOADED,
+            fetcher.fetch(baseUrl, targetDir, "db.properties"));
+        assertTrue(requestHeaders.isEmpty());
+
+        assertEquals(ConfigFetcher.Result.NOT_MODIFIED,
+            fetcher.fetch(baseUrl, targetDir, "db.properties"));
+        assertEquals(ETAG, requestHeaders.get("If-None-Match"));
+        assertEquals(LAST_MODIFIED, requestHeaders.get("If-Modified-Since"));
+        assertEquals("key=value", read(new File(targetDir, "db.properties")));
+    }
+
+    @Test
+    public void readTimeoutFallsBackToLocalCopy() throws Exception {
+        handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        fetcher.setReadTimeoutMillis(200);
+
+        long begin = System.nanoTime();
+        try {
+            fetcher.fetch(baseUrl, targetDir, "db.properties");
+            fail("no local copy to fall back to");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no local copy"));
+        }
+        assertFalse(new File(targetDir, "db.properties").exists());
+
+        write(new File(targetDir, "db.properties"), "key=old");
+        assertEquals(ConfigFetcher.Result.LAST_KNOWN_GOOD,
+            fetcher.fetch(baseUrl, targetDir, "db.properties"));
+        assertEquals("key=old", read(new File(targetDir, "db.properties")));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) < 4000);
+    }
+
+    @Test
+    public void replacesTargetOnlyOnceDownloadIsComplete() throws Exception {
+        final CountDownLatch halfSent = new CountDownLatch(1);
+        final CountDownLatch sendRest = new CountDownLatch(1);
+        handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write("key=new,".getBytes(UTF8));
+                out.flush();
+                halfSent.countDown();
+                try {
+                    sendRest.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                out.write("complete".getBytes(UTF8));
+                out.close();
+            }
+        };
+        final File target = new File(targetDir, "db.properties");
+        write(target, "key=old");
+
+        final AtomicReference<Object> outcome = new AtomicReference<Object>();
+        Thread fetchThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    outcome.set(fetcher.fetch(baseUrl, targetDir, "db.properties"));
+                } catch (IOException e) {
+                    outcome.set(e);
+                }
+            }
+        };
+        fetchThread.start();
+        assertTrue(halfSent.await(5, TimeUnit.SECONDS));
+        assertEquals("key=old", read(target));
+        sendRest.countDown();
+        fetchThread.join(5000);
+
+        assertEquals(ConfigFetcher.Result.DOWNLOADED, outcome.get());
+        assertEquals("key=new,complete", read(target));
+        // no temp file left next to the target
+        String[] names = targetDir.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[] { "db.properties" }, names);
+    }
+
+    @Test
+    public void fallsBackToCacheDirWhenServerIsDown() throws Exception {
+        handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "key=cached", ETAG, null);
+            }
+        };
+        File cacheDir = new File(folder.getRoot(), "cache");
+        fetcher.setCacheDir(cacheDir);
+
+        assertEquals(ConfigFetcher.Result.DOWNLOADED,
+            fetcher.fetch(baseUrl, targetDir, "db.properties"));
+        assertEquals("key=cached", read(new File(cacheDir, "db.properties")));
+        assertTrue(new File(cacheDir, ".db.properties.meta").isFile());
+
+        // redeploy wiped the target directory, and the config server is gone
+        assertTrue(new File(targetDir, "db.properties").delete());
+        server.stop(0);
+
+        assertEquals(ConfigFetcher.Result.LAST_KNOWN_GOOD,
+            fetcher.fetch(baseUrl, targetDir, "db.properties"));
+        assertEquals("key=cached", read(new File(targetDir, "db.properties")));
+    }
+
+    @Test
+    public void failsWhenServerIsDownAndNothingIsCached() throws Exception {
+        server.stop(0);
+        fetcher.setCacheDir(new File(folder.getRoot(), "cache"));
+        try {
+            fetcher.fetch(baseUrl, targetDir, Arrays.asList("a.properties", "b.properties"));
+            fail("nothing to fall back to");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("a.properties"));
+        }
+        List<String> left = Arrays.asList(targetDir.list());
+        assertTrue(left.toString(), left.isEmpty());
+        assertNull(new File(folder.getRoot(), "cache").list());
+    }
+
+    private static String body(HttpExchange exchange) {
+        return exchange.getRequestURI().getPath();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body, String etag,
+                                String lastModified) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+        }
+        if (lastModified != null) {
+            exchange.getResponseHeaders().set("Last-Modified", lastModified);
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), UTF8);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(UTF8));
+    }
+}